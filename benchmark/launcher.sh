@@ -0,0 +1,52 @@
+#!/bin/sh
+# Measures the overhead of the built-in launcher templates: each template is invoked through a chain of symlinks
+# with java replaced by "true", so only the work done by the shell is measured.
+#
+# Usage: launcher.sh [depth] [runs]
+set -e
+DEPTH=${1:-10}
+RUNS=${2:-500}
+BASE=$(cd "$(dirname "$0")/.." && pwd)
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+now() {
+  date +%s%N
+}
+
+# $1: template, $2: invocation
+measure() {
+  i=0
+  start=$(now)
+  while [ $i -lt "$RUNS" ] ; do
+    "$2" > /dev/null
+    i=$((i + 1))
+  done
+  end=$(now)
+  printf "%-14s %-10s %8d us/run\n" "$1" "$3" $(((end - start) / RUNS / 1000))
+}
+
+echo "depth $DEPTH, $RUNS runs"
+for template in launcher launcher-fast ; do
+  dir="$WORK/$template"
+  mkdir -p "$dir/bin"
+  sed -e 's|\${{path}}|"$PATH"|' -e 's|\${{java}}|true|' -e 's|\${{cds}}|false|' \
+      -e 's|\${{javaVariable}}|BENCH_JAVA|g' -e 's|\${{optionsVariable}}|BENCH_OPTS|g' -e 's|\${{[a-zA-Z]*}}||g' \
+      "$BASE/src/main/resources/$template" > "$dir/bin/app"
+  chmod +x "$dir/bin/app"
+  # alternate absolute and relative links, each in its own directory
+  previous="$dir/bin/app"
+  n=0
+  while [ $n -lt "$DEPTH" ] ; do
+    mkdir "$dir/l$n"
+    if [ $((n % 2)) -eq 0 ] ; then
+      ln -s "$previous" "$dir/l$n/app"
+    else
+      ln -s "../${previous#"$dir"/}" "$dir/l$n/app"
+    fi
+    previous="$dir/l$n/app"
+    n=$((n + 1))
+  done
+  measure "$template" "$dir/bin/app" "direct"
+  measure "$template" "$previous" "symlinked"
+done
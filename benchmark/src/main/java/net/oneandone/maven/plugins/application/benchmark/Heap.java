@@ -0,0 +1,69 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Prints the peak heap usage of a trial when it ends. Not an AuxCounters result because JMH sums those up over
+ * iterations, which gives no maximum.
+ */
+@State(Scope.Thread)
+public class Heap {
+    private long peakHeapMb;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        reset();
+        peakHeapMb = 0;
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /** Call after each operation */
+    public void update() {
+        long sum;
+
+        sum = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                sum += pool.getPeakUsage().getUsed();
+            }
+        }
+        peakHeapMb = Math.max(peakHeapMb, sum / (1024 * 1024));
+    }
+
+    @TearDown(Level.Trial)
+    public void print() {
+        System.out.println();
+        System.out.println("peak heap: " + peakHeapMb + " mb");
+    }
+}
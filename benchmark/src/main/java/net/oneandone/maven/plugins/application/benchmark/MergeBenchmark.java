@@ -0,0 +1,112 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application.benchmark;
+
+import net.oneandone.maven.plugins.application.CentralDirectory;
+import net.oneandone.maven.plugins.application.GenerateMojo;
+import net.oneandone.maven.plugins.application.Merger;
+import org.apache.maven.artifact.Artifact;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs GenerateMojo.jar on a synthetic dependency set, i.e. loading dependencies, duplicate detection, concat,
+ * plexus merge and saving, with the default merge and with streaming merge. The conflicts benchmark only opens the
+ * dependencies and detects duplicates. The default merge is single-threaded, only streaming and conflicts run with
+ * each of the {@link Threads} counts. StepsBenchmark times the individual steps. Run with "-prof gc" to get allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MergeBenchmark {
+    @Param({ "50" })
+    public int jars;
+
+    @Param({ "2000" })
+    public int entries;
+
+    /** fraction of equal entries in all jars */
+    @Param({ "0.1" })
+    public double overlap;
+
+    private Synthetic synthetic;
+    private GenerateMojo defaultMerge;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        synthetic = new Synthetic(jars, entries, overlap);
+        defaultMerge = synthetic.mojo(false, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        synthetic.delete();
+    }
+
+    @Benchmark
+    public void defaultMerge(Heap heap) throws Exception {
+        jar(defaultMerge);
+        heap.update();
+    }
+
+    /** Configuring the mojo is cheap compared to the merge */
+    @Benchmark
+    public void streaming(Threads threads, Heap heap) throws Exception {
+        jar(synthetic.mojo(true, threads.threads));
+        heap.update();
+    }
+
+    @Benchmark
+    public int conflicts(Threads threads, Heap heap) throws Exception {
+        List<CentralDirectory> zips;
+        Artifact artifact;
+        int result;
+
+        try (Merger merger = new Merger(synthetic.world, new Synthetic.QuietLog(), threads.threads, false, synthetic.rules())) {
+            zips = merger.open(synthetic.files(), null);
+            artifact = synthetic.project.getArtifact();
+            for (CentralDirectory zip : zips) {
+                merger.add(zip, artifact);
+            }
+            result = merger.duplicates().size();
+        }
+        heap.update();
+        return result;
+    }
+
+    static void jar(GenerateMojo mojo) throws Exception {
+        mojo.getFile().deleteFileOpt();
+        mojo.jar();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application.benchmark;
+
+import net.oneandone.maven.plugins.application.Rules;
+import net.oneandone.sushi.fs.Node;
+import net.oneandone.sushi.fs.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classifies the entries of a synthetic dependency with the remove, concat, overwrite and equal rules: once with
+ * the compiled Rules, once like GenerateMojo did before, i.e. one find per pattern and List.contains per entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RulesBenchmark {
+    private static final List<String> REMOVE = Arrays.asList("META-INF/versions/9/module-info.class", "**/module-info.class");
+    private static final List<String> CONCAT = Arrays.asList("META-INF/NOTICE", "META-INF/LICENSE.txt", "META-INF/sisu/javax.inject.Named");
+    private static final List<String> OVERWRITE = Arrays.asList("**/*.html", "META-INF/LICENSE", "META-INF/DEPENDENCIES");
+    private static final List<String> EQUAL = Arrays.asList("META-INF/maven/**/*");
+
+    /** number of entries of the dependency */
+    @Param({ "1000", "10000", "100000" })
+    public int entries;
+
+    private Node<?> root;
+    private List<String> paths;
+    private Rules rules;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        World world;
+        String path;
+        Node<?> file;
+
+        world = World.createMinimal();
+        // same as Archive.loadJar
+        root = world.getMemoryFilesystem().root().node("", null);
+        paths = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            path = path(i);
+            paths.add(path);
+            file = root.join(path);
+            file.getParent().mkdirsOpt();
+            file.writeString("");
+        }
+        rules = Rules.compile(REMOVE, CONCAT, OVERWRITE, EQUAL);
+    }
+
+    /** Mostly classes, plus 1% html files and 1% maven metadata, i.e. rule matches grow with the number of entries */
+    private static String path(int i) {
+        String pkg;
+
+        pkg = "com/example/p" + (i / 100) + "/";
+        switch (i % 100) {
+            case 0:
+                return pkg + "doc" + i + ".html";
+            case 1:
+                return "META-INF/maven/com.example/a" + i + "/pom.properties";
+            case 2:
+                return pkg + "module-info.class";
+            default:
+                return pkg + "C" + i + ".class";
+        }
+    }
+
+    @Benchmark
+    public void compiled(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(rules.classify(path));
+        }
+    }
+
+    @Benchmark
+    public void findPerPattern(Blackhole blackhole) throws IOException {
+        List<Node> remove;
+        List<Node> concat;
+        List<Node> overwrite;
+        List<Node> equal;
+
+        remove = find(REMOVE);
+        concat = find(CONCAT);
+        overwrite = find(OVERWRITE);
+        equal = find(EQUAL);
+        for (Node<?> node : root.find("**/*")) {
+            if (!node.isDirectory()) {
+                blackhole.consume(remove.contains(node));
+                blackhole.consume(concat.contains(node));
+                blackhole.consume(overwrite.contains(node));
+                blackhole.consume(equal.contains(node));
+            }
+        }
+    }
+
+    private List<Node> find(List<String> patterns) throws IOException {
+        List<Node> result;
+
+        result = new ArrayList<>();
+        for (String pattern : patterns) {
+            result.addAll(root.find(pattern));
+        }
+        return result;
+    }
+}
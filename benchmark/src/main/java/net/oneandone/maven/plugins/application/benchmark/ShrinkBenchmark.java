@@ -0,0 +1,85 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application.benchmark;
+
+import net.oneandone.maven.plugins.application.GenerateMojo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming merge plus ProGuard shrink. ProGuard 6.2.2 reads class files up to Java 13, including the runtime library,
+ * thus on a newer JDK, run with "-p javaHome=/path/to/jdk11" to run ProGuard with and shrink against that JDK. The
+ * synthetic classes are Java 8 class files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ShrinkBenchmark {
+    @Param({ "20" })
+    public int jars;
+
+    @Param({ "1000" })
+    public int entries;
+
+    @Param({ "0.1" })
+    public double overlap;
+
+    /** shrinkJavaHome, empty for the JDK running the benchmark */
+    @Param({ "" })
+    public String javaHome;
+
+    private Synthetic synthetic;
+    private GenerateMojo mojo;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        synthetic = new Synthetic(jars, entries, overlap);
+        mojo = synthetic.mojo(true, 1);
+        mojo.setShrink(true);
+        mojo.setShrinkOptions("-dontwarn\n-ignorewarnings\n-dontnote");
+        if (!javaHome.isEmpty()) {
+            mojo.setShrinkJavaHome(javaHome);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        synthetic.delete();
+    }
+
+    @Benchmark
+    public void shrink(Heap heap) throws Exception {
+        MergeBenchmark.jar(mojo);
+        heap.update();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application.benchmark;
+
+import net.oneandone.maven.plugins.application.CentralDirectory;
+import net.oneandone.maven.plugins.application.Merger;
+import net.oneandone.maven.plugins.application.Rules;
+import org.apache.maven.artifact.Artifact;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the steps of the streaming merge one by one, single-threaded: opening the central directories of the
+ * dependencies, matching the rules against all entries, duplicate detection with the rules already matched, and save,
+ * i.e. copying the entries and writing concatenated files and merged descriptors. Save writes to a null stream, thus
+ * disk speed does not count. MergeBenchmark times the whole merge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StepsBenchmark {
+    @Param({ "50" })
+    public int jars;
+
+    @Param({ "2000" })
+    public int entries;
+
+    /** fraction of equal entries in all jars */
+    @Param({ "0.1" })
+    public double overlap;
+
+    private Synthetic synthetic;
+    private List<File> files;
+    private Rules rules;
+    private Artifact artifact;
+    /** keeps the jars open; all of them are added, thus it's ready to save */
+    private Merger merged;
+    private List<CentralDirectory> zips;
+    /** rules by entry index for each jar */
+    private List<int[]> classified;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int[] rulesByEntry;
+
+        synthetic = new Synthetic(jars, entries, overlap);
+        files = synthetic.files();
+        rules = synthetic.rules();
+        artifact = synthetic.project.getArtifact();
+        merged = merger();
+        zips = merged.open(files, null);
+        classified = new ArrayList<>();
+        for (CentralDirectory zip : zips) {
+            rulesByEntry = new int[zip.entries.size()];
+            Arrays.fill(rulesByEntry, -1);
+            merged.add(zip, artifact, rulesByEntry);
+            classified.add(rulesByEntry);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        merged.close();
+        synthetic.delete();
+    }
+
+    private Merger merger() {
+        return new Merger(synthetic.world, new Synthetic.QuietLog(), 1, false, rules);
+    }
+
+    @Benchmark
+    public int open(Heap heap) throws IOException {
+        int result;
+
+        try (Merger merger = merger()) {
+            result = merger.open(files, null).size();
+        }
+        heap.update();
+        return result;
+    }
+
+    @Benchmark
+    public int rules() {
+        int result;
+
+        result = 0;
+        for (CentralDirectory zip : zips) {
+            for (CentralDirectory.Entry entry : zip.entries) {
+                result += rules.classify(entry.name);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int duplicates(Heap heap) throws IOException {
+        int result;
+
+        try (Merger merger = merger()) {
+            for (int i = 0; i < zips.size(); i++) {
+                merger.add(zips.get(i), artifact, classified.get(i));
+            }
+            result = merger.duplicates().size();
+        }
+        heap.update();
+        return result;
+    }
+
+    @Benchmark
+    public void save(Heap heap) throws IOException {
+        merged.save(OutputStream.nullOutputStream());
+        heap.update();
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application.benchmark;
+
+import net.oneandone.maven.plugins.application.GenerateMojo;
+import net.oneandone.maven.plugins.application.Rules;
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A synthetic dependency set in a temp directory, and a stub project to run GenerateMojo on it without Maven.
+ * Each jar has the specified number of entries: classes, resources, a file to concat and, for every tenth jar, plexus
+ * components. The concat file is not a descriptor, thus the concat rule is measured rather than descriptor merging. The overlap is the fraction of entries that are equal in all jars, they
+ * are configured as equal.
+ */
+public class Synthetic {
+    public static final String MAIN = "bench.Main";
+
+    private static final String CONCAT = "META-INF/bench/registry.txt";
+    private static final String EQUAL = "shared/**/*";
+    private static final String PLEXUS = "META-INF/plexus/components.xml";
+
+    public final World world;
+    public final FileNode dir;
+    public final MavenProject project;
+    public final List<FileNode> jars;
+
+    public Synthetic(int jarCount, int entries, double overlap) throws IOException {
+        Random random;
+        DefaultArtifactHandler handler;
+        Set<Artifact> artifacts;
+        Artifact artifact;
+        FileNode jar;
+
+        world = World.createMinimal();
+        dir = world.getTemp().createTempDirectory();
+        random = new Random(42);
+        handler = new DefaultArtifactHandler("jar");
+        artifacts = new LinkedHashSet<>();
+        jars = new ArrayList<>();
+        for (int i = 0; i < jarCount; i++) {
+            jar = dir.join("lib/dep" + i + ".jar");
+            dependency(jar, i, entries, overlap, random);
+            artifact = new DefaultArtifact("bench", "dep" + i, "1.0", Artifact.SCOPE_COMPILE, "jar", null, handler);
+            artifact.setFile(jar.toPath().toFile());
+            artifacts.add(artifact);
+            jars.add(jar);
+        }
+        jar = dir.join("project.jar");
+        projectJar(jar);
+        artifact = new DefaultArtifact("bench", "project", "1.0", Artifact.SCOPE_COMPILE, "jar", null, handler);
+        artifact.setFile(jar.toPath().toFile());
+        jars.add(jar);
+        project = new MavenProject();
+        project.setGroupId("bench");
+        project.setArtifactId("project");
+        project.setVersion("1.0");
+        project.setArtifact(artifact);
+        project.setArtifacts(artifacts);
+    }
+
+    /** @return dependency jars and the project jar, in merge order */
+    public List<File> files() {
+        List<File> result;
+
+        result = new ArrayList<>();
+        for (FileNode jar : jars) {
+            result.add(jar.toPath().toFile());
+        }
+        return result;
+    }
+
+    /** @return the rules configured by mojo */
+    public Rules rules() {
+        return Rules.compile(Collections.emptyList(), Arrays.asList(CONCAT), Collections.emptyList(), Arrays.asList(EQUAL));
+    }
+
+    /** @return mojo configured to generate an application file in the target directory of this dependency set */
+    public GenerateMojo mojo(boolean streaming, int threads) throws IOException {
+        GenerateMojo mojo;
+
+        mojo = new GenerateMojo(world, "app", dir.join("target").mkdirsOpt(), MAIN, "application", "java", "$PATH");
+        mojo.setLog(new QuietLog());
+        mojo.setProject(project);
+        mojo.setProjectJar(dir.join("project.jar").getAbsolute());
+        mojo.setAttach(false);
+        mojo.setEqual(EQUAL);
+        mojo.setConcat(CONCAT);
+        mojo.setStreaming(streaming);
+        mojo.setThreads(threads);
+        return mojo;
+    }
+
+    public void delete() throws IOException {
+        dir.deleteTree();
+    }
+
+    //--
+
+    private static void dependency(FileNode file, int index, int entries, double overlap, Random random) throws IOException {
+        int shared;
+        String name;
+
+        file.getParent().mkdirsOpt();
+        shared = (int) (entries * overlap);
+        try (OutputStream out = file.newOutputStream(); ZipOutputStream dest = new ZipOutputStream(out)) {
+            entry(dest, CONCAT, ("bench.Impl" + index + "\n").getBytes(StandardCharsets.UTF_8));
+            if (index % 10 == 0) {
+                entry(dest, PLEXUS, ("<component-set><components><component><role>bench.Role" + index
+                        + "</role></component></components></component-set>").getBytes(StandardCharsets.UTF_8));
+            }
+            for (int i = 0; i < entries; i++) {
+                if (i < shared) {
+                    name = "shared/p" + (i / 100) + "/S" + i;
+                    entry(dest, name + ".class", classFile(name, false));
+                } else if (i % 5 == 0) {
+                    entry(dest, "dep" + index + "/r" + (i / 100) + "/resource" + i + ".txt", resource(random, 4096));
+                } else {
+                    name = "dep" + index + "/p" + (i / 100) + "/C" + i;
+                    entry(dest, name + ".class", classFile(name, false));
+                }
+            }
+        }
+    }
+
+    private static void projectJar(FileNode file) throws IOException {
+        try (OutputStream out = file.newOutputStream(); ZipOutputStream dest = new ZipOutputStream(out)) {
+            entry(dest, MAIN.replace('.', '/') + ".class", classFile(MAIN.replace('.', '/'), true));
+        }
+    }
+
+    private static void entry(ZipOutputStream dest, String name, byte[] data) throws IOException {
+        dest.putNextEntry(new ZipEntry(name));
+        dest.write(data);
+        dest.closeEntry();
+    }
+
+    /** @return text-like data, compressible like typical resources */
+    private static byte[] resource(Random random, int size) {
+        byte[] result;
+
+        result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (byte) ('a' + random.nextInt(random.nextInt(10) + 1));
+        }
+        return result;
+    }
+
+    /**
+     * @return minimal Java 8 class file extending Object, optionally with an empty main method; version 52 so ProGuard
+     * can process it
+     */
+    public static byte[] classFile(String name, boolean main) throws IOException {
+        ByteArrayOutputStream result;
+        DataOutputStream dest;
+
+        result = new ByteArrayOutputStream();
+        dest = new DataOutputStream(result);
+        dest.writeInt(0xCAFEBABE);
+        dest.writeShort(0);
+        dest.writeShort(52);
+        dest.writeShort(main ? 8 : 5);
+        dest.writeByte(7); // #1 this class
+        dest.writeShort(2);
+        dest.writeByte(1); // #2
+        dest.writeUTF(name);
+        dest.writeByte(7); // #3 super class
+        dest.writeShort(4);
+        dest.writeByte(1); // #4
+        dest.writeUTF("java/lang/Object");
+        if (main) {
+            dest.writeByte(1); // #5
+            dest.writeUTF("main");
+            dest.writeByte(1); // #6
+            dest.writeUTF("([Ljava/lang/String;)V");
+            dest.writeByte(1); // #7
+            dest.writeUTF("Code");
+        }
+        dest.writeShort(0x21); // public super
+        dest.writeShort(1);
+        dest.writeShort(3);
+        dest.writeShort(0); // interfaces
+        dest.writeShort(0); // fields
+        if (main) {
+            dest.writeShort(1);
+            dest.writeShort(0x09); // public static
+            dest.writeShort(5);
+            dest.writeShort(6);
+            dest.writeShort(1); // attributes
+            dest.writeShort(7);
+            dest.writeInt(13);
+            dest.writeShort(0); // max stack
+            dest.writeShort(1); // max locals
+            dest.writeInt(1);
+            dest.writeByte(0xb1); // return
+            dest.writeShort(0); // exception table
+            dest.writeShort(0); // attributes
+        } else {
+            dest.writeShort(0);
+        }
+        dest.writeShort(0); // attributes
+        dest.flush();
+        return result.toByteArray();
+    }
+
+    public static class QuietLog extends SystemStreamLog {
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+        }
+
+        @Override
+        public void info(CharSequence content, Throwable error) {
+        }
+
+        @Override
+        public void info(Throwable error) {
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+        }
+
+        @Override
+        public void debug(CharSequence content, Throwable error) {
+        }
+
+        @Override
+        public void debug(Throwable error) {
+        }
+    }
+}
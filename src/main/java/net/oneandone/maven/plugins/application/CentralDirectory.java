@@ -0,0 +1,482 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Entries of a zip file as listed in its central directory. Entry data is not loaded, it's read on demand, either raw
+ * (i.e. as stored in the file, usually deflated) or uncompressed. Handles zip64 and data prepended to the zip file
+ * (e.g. the launch script of an application file).
+ *
+ * Files up to 2 GB are memory-mapped: parsing the central directory and reading entries access the mapping, thus pages
+ * are loaded by the OS when they are actually used, and nothing is copied into the heap. Larger files are read
+ * with positional channel reads.
+ */
+public class CentralDirectory implements AutoCloseable {
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int LOC_HEADER = 30;
+    private static final int CEN_HEADER = 46;
+    private static final int END_HEADER = 22;
+    private static final int ZIP64_LOCATOR = 20;
+    private static final int MAX_COMMENT = 0xffff;
+
+    public static CentralDirectory open(File file) throws IOException {
+        FileChannel channel;
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new CentralDirectory(file, channel, map(channel));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Opens a zip file with entries parsed before, e.g. by an IndexCache; the file must not have changed since */
+    public static CentralDirectory open(File file, List<Entry> entries) throws IOException {
+        FileChannel channel;
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new CentralDirectory(file, channel, map(channel), entries);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** @return null if the file is too large to be mapped into a single buffer */
+    private static ByteBuffer map(FileChannel channel) throws IOException {
+        long size;
+
+        size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            return null;
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public final File file;
+    private final FileChannel channel;
+    /** mapping of the whole file; null to read from the channel */
+    private final ByteBuffer mapped;
+    public final List<Entry> entries;
+
+    private CentralDirectory(File file, FileChannel channel, ByteBuffer mapped, List<Entry> entries) {
+        this.file = file;
+        this.channel = channel;
+        this.mapped = mapped;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    private CentralDirectory(File file, FileChannel channel, ByteBuffer mapped) throws IOException {
+        long end;
+        ByteBuffer buffer;
+        long count;
+        long size;
+        long offset;
+        long position;
+        long zip64;
+
+        this.file = file;
+        this.channel = channel;
+        this.mapped = mapped;
+        end = findEnd();
+        buffer = read(end, END_HEADER);
+        count = buffer.getShort(10) & 0xffff;
+        size = buffer.getInt(12) & 0xffffffffL;
+        offset = buffer.getInt(16) & 0xffffffffL;
+        position = end - size;
+        zip64 = zip64End(end);
+        if (zip64 != -1) {
+            buffer = read(zip64, 56);
+            count = buffer.getLong(32);
+            size = buffer.getLong(40);
+            offset = buffer.getLong(48);
+            position = zip64 - size;
+        } else if (size == 0xffffffffL || offset == 0xffffffffL) {
+            throw new ZipException(file + ": zip64 end header not found");
+        }
+        if (position < 0 || offset > position) {
+            throw new ZipException(file + ": invalid central directory");
+        }
+        this.entries = Collections.unmodifiableList(parse(read(position, (int) size), count, position - offset));
+    }
+
+    /** @return position of the end of central directory record */
+    private long findEnd() throws IOException {
+        long length;
+        int max;
+        ByteBuffer buffer;
+
+        length = channel.size();
+        if (length < END_HEADER) {
+            throw new ZipException(file + ": not a zip file");
+        }
+        max = (int) Math.min(length, END_HEADER + MAX_COMMENT);
+        buffer = read(length - max, max);
+        for (int i = max - END_HEADER; i >= 0; i--) {
+            if (buffer.getInt(i) == END_SIG) {
+                return length - max + i;
+            }
+        }
+        throw new ZipException(file + ": end of central directory not found");
+    }
+
+    /** @return position of the zip64 end of central directory record, -1 if there is none */
+    private long zip64End(long end) throws IOException {
+        long recorded;
+        long guessed;
+
+        if (end < ZIP64_LOCATOR + 56 || read(end - ZIP64_LOCATOR, 4).getInt(0) != ZIP64_LOCATOR_SIG) {
+            return -1;
+        }
+        recorded = read(end - ZIP64_LOCATOR, ZIP64_LOCATOR).getLong(8);
+        if (recorded >= 0 && recorded + 56 <= end && read(recorded, 4).getInt(0) == ZIP64_END_SIG) {
+            return recorded;
+        }
+        // the recorded offset does not account for prepended data; try the record directly preceding the locator
+        guessed = end - ZIP64_LOCATOR - 56;
+        if (read(guessed, 4).getInt(0) == ZIP64_END_SIG) {
+            return guessed;
+        }
+        throw new ZipException(file + ": zip64 end header not found");
+    }
+
+    private List<Entry> parse(ByteBuffer buffer, long count, long base) throws IOException {
+        List<Entry> result;
+        int pos;
+        int flags;
+        int nameLength;
+        int extraLength;
+        int commentLength;
+        byte[] name;
+        long compressedSize;
+        long size;
+        long offset;
+        long[] values;
+
+        result = new ArrayList<>((int) Math.min(count, 100_000));
+        pos = 0;
+        // the entry count might be truncated to 16 bits, thus read until the end of the central directory
+        while (pos < buffer.limit()) {
+            if (buffer.getInt(pos) != CEN_SIG) {
+                throw new ZipException(file + ": invalid central directory header");
+            }
+            flags = buffer.getShort(pos + 8) & 0xffff;
+            compressedSize = buffer.getInt(pos + 20) & 0xffffffffL;
+            size = buffer.getInt(pos + 24) & 0xffffffffL;
+            nameLength = buffer.getShort(pos + 28) & 0xffff;
+            extraLength = buffer.getShort(pos + 30) & 0xffff;
+            commentLength = buffer.getShort(pos + 32) & 0xffff;
+            offset = buffer.getInt(pos + 42) & 0xffffffffL;
+            name = new byte[nameLength];
+            buffer.get(pos + CEN_HEADER, name);
+            if (size == 0xffffffffL || compressedSize == 0xffffffffL || offset == 0xffffffffL) {
+                values = new long[] { size, compressedSize, offset };
+                zip64Extra(buffer, pos + CEN_HEADER + nameLength, extraLength, values);
+                size = values[0];
+                compressedSize = values[1];
+                offset = values[2];
+            }
+            result.add(new Entry(new String(name, StandardCharsets.UTF_8), flags,
+                    buffer.getShort(pos + 10) & 0xffff, buffer.getInt(pos + 12), buffer.getInt(pos + 16) & 0xffffffffL,
+                    compressedSize, size, base + offset));
+            pos += CEN_HEADER + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    /** Replaces the values marked as 0xffffffff with the values from the zip64 extra field */
+    private void zip64Extra(ByteBuffer buffer, int pos, int length, long[] values) throws ZipException {
+        int end;
+        int id;
+        int size;
+        int field;
+
+        end = pos + length;
+        while (pos + 4 <= end) {
+            id = buffer.getShort(pos) & 0xffff;
+            size = buffer.getShort(pos + 2) & 0xffff;
+            if (id == 0x0001) {
+                field = pos + 4;
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == 0xffffffffL) {
+                        if (field + 8 > pos + 4 + size) {
+                            throw new ZipException(file + ": invalid zip64 extra field");
+                        }
+                        values[i] = buffer.getLong(field);
+                        field += 8;
+                    }
+                }
+                return;
+            }
+            pos += 4 + size;
+        }
+        throw new ZipException(file + ": missing zip64 extra field");
+    }
+
+    /** @return little endian buffer with the specified range of the file; a view of the mapping if the file is mapped */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer;
+        int count;
+
+        if (mapped != null) {
+            if (position < 0 || position + length > mapped.capacity()) {
+                throw new EOFException(file + ": unexpected end of file");
+            }
+            return mapped.slice((int) position, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            count = channel.read(buffer, position + buffer.position());
+            if (count == -1) {
+                throw new EOFException(file + ": unexpected end of file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    //--
+
+    /** @return stream to read the entry data as stored in the zip file */
+    public InputStream raw(Entry entry) throws IOException {
+        long offset;
+
+        offset = dataOffset(entry);
+        if (mapped != null) {
+            if (offset + entry.compressedSize > mapped.capacity()) {
+                throw new EOFException(file + ": unexpected end of file: " + entry.name);
+            }
+            return new BufferInputStream(mapped.slice((int) offset, (int) entry.compressedSize));
+        }
+        return new ChannelInputStream(channel, offset, entry.compressedSize);
+    }
+
+    /** @return stream to read the uncompressed entry data */
+    public InputStream open(Entry entry) throws IOException {
+        switch (entry.method) {
+            case STORED:
+                return raw(entry);
+            case DEFLATED:
+                return new EntryInflaterInputStream(raw(entry));
+            default:
+                throw new ZipException(file + ": unsupported compression method " + entry.method + ": " + entry.name);
+        }
+    }
+
+    private long dataOffset(Entry entry) throws IOException {
+        ByteBuffer header;
+
+        if (entry.dataOffset == -1) {
+            header = read(entry.localOffset, LOC_HEADER);
+            if (header.getInt(0) != LOC_SIG) {
+                throw new ZipException(file + ": invalid local header: " + entry.name);
+            }
+            entry.dataOffset = entry.localOffset + LOC_HEADER + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+        }
+        return entry.dataOffset;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public String toString() {
+        return file.toString();
+    }
+
+    //--
+
+    public static class Entry {
+        public final String name;
+        public final int flags;
+        public final int method;
+        /** time and date in MS-DOS format */
+        public final int dosTime;
+        public final long crc;
+        public final long compressedSize;
+        public final long size;
+        public final long localOffset;
+        /** computed on demand; volatile because entries are read from multiple threads */
+        private volatile long dataOffset;
+
+        public Entry(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size, long localOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+            this.dataOffset = -1;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public boolean isEncrypted() {
+            return (flags & 1) != 0;
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        ChannelInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one;
+
+            one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            int count;
+
+            if (remaining <= 0) {
+                return -1;
+            }
+            count = channel.read(ByteBuffer.wrap(bytes, off, (int) Math.min(len, remaining)), position);
+            if (count == -1) {
+                throw new EOFException("unexpected end of zip file");
+            }
+            position += count;
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            n = Math.max(0, Math.min(n, remaining));
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return len == 0 ? 0 : -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            n = Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + (int) n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /** Like the inflater stream of ZipFile: supplies the dummy byte needed by nowrap inflaters and ends the inflater on close */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+        private boolean closed;
+
+        EntryInflaterInputStream(InputStream raw) {
+            super(raw, new Inflater(true), 8192);
+            this.eof = false;
+            this.closed = false;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("unexpected end of deflated entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
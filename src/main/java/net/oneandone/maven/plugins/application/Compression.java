@@ -0,0 +1,142 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compression policy for the entries of a jar: a default plus overrides for entries matching patterns; the first
+ * matching override wins. Compressions are "keep" to leave an entry as it is, "stored" for no compression, or a deflate
+ * level from 0 to 9.
+ */
+public class Compression {
+    public static final int KEEP = -2;
+    public static final int STORED = -1;
+
+    public static int parseLevel(String str) {
+        int result;
+
+        switch (str.trim()) {
+            case "keep":
+                return KEEP;
+            case "stored":
+                return STORED;
+            default:
+                try {
+                    result = Integer.parseInt(str.trim());
+                } catch (NumberFormatException e) {
+                    result = -3;
+                }
+                if (result < 0 || result > 9) {
+                    throw new IllegalArgumentException("invalid compression: " + str);
+                }
+                return result;
+        }
+    }
+
+    /** @param overrides pattern=compression */
+    public static Compression create(String level, List<String> overrides) {
+        Rules rules;
+        List<Integer> levels;
+        int idx;
+
+        if (overrides.size() > 31) {
+            throw new IllegalArgumentException("too many compression overrides: " + overrides.size());
+        }
+        rules = new Rules();
+        levels = new ArrayList<>();
+        for (String override : overrides) {
+            idx = override.lastIndexOf('=');
+            if (idx == -1) {
+                throw new IllegalArgumentException("invalid compression override, expected pattern=compression: " + override);
+            }
+            rules.add(override.substring(0, idx).trim(), 1 << levels.size());
+            levels.add(parseLevel(override.substring(idx + 1)));
+        }
+        return new Compression(parseLevel(level), rules, levels);
+    }
+
+    private final int level;
+    /** bit i is the override with index i */
+    private final Rules overrides;
+    private final List<Integer> levels;
+
+    public Compression(int level, Rules overrides, List<Integer> levels) {
+        this.level = level;
+        this.overrides = overrides;
+        this.levels = levels;
+    }
+
+    /** @return true if applying this policy does not change anything */
+    public boolean isKeep() {
+        if (level != KEEP) {
+            return false;
+        }
+        for (int l : levels) {
+            if (l != KEEP) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int level(String path) {
+        int matches;
+
+        matches = overrides.classify(path);
+        return matches == 0 ? level : levels.get(Integer.numberOfTrailingZeros(matches));
+    }
+
+    /** Re-compresses the entries of the specified zip file. */
+    public void apply(File file) throws IOException {
+        ZipWriter.rewrite(file, (zip, writer) -> {
+            int entryLevel;
+            byte[] data;
+
+            for (CentralDirectory.Entry entry : zip.entries) {
+                entryLevel = entry.isDirectory() ? KEEP : level(entry.name);
+                if (entryLevel == KEEP || (entryLevel == STORED && entry.method == CentralDirectory.STORED)) {
+                    try (InputStream raw = zip.raw(entry)) {
+                        writer.copy(entry, entry.name, raw);
+                    }
+                } else {
+                    try (InputStream src = zip.open(entry)) {
+                        data = src.readAllBytes();
+                    }
+                    if (entryLevel == STORED) {
+                        writer.write(new ZipWriter.Compressed(entry.name, CentralDirectory.STORED, crc(data), data.length, data),
+                                entry.dosTime);
+                    } else {
+                        writer.write(ZipWriter.Compressed.deflate(entry.name, data, entryLevel), entry.dosTime);
+                    }
+                }
+            }
+        });
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc;
+
+        crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import net.oneandone.sushi.util.Separator;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks the dependencies for duplicate files that would fail the generate goal. Reads only the central directories
+ * of the jars, in parallel, and applies the same remove, concat, overwrite and equal rules; duplicates are compared by
+ * size and CRC32 checksum. Reports all unresolved duplicates with the paths to add to the rules. Much faster than the
+ * generate goal, e.g. as a pre-check in CI. Uses the same parameters as the generate goal, configure them for the plugin
+ * instead of the execution to share them.
+ */
+@Mojo(name = "conflicts", requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public class ConflictsMojo extends AbstractMojo {
+    private final World world;
+
+    /** Same as for the generate goal. */
+    @Parameter(defaultValue = "")
+    private String concat = "";
+
+    /** Same as for the generate goal. */
+    @Parameter(defaultValue = "")
+    private String remove = "";
+
+    /** Same as for the generate goal. */
+    @Parameter(defaultValue = "")
+    private String overwrite = "";
+
+    /** Same as for the generate goal. */
+    @Parameter(defaultValue = "")
+    private String equal = "";
+
+    /** Same as for the generate goal. */
+    @Parameter
+    private List<String> scopes = Arrays.asList(Artifact.SCOPE_COMPILE, Artifact.SCOPE_RUNTIME);
+
+    /** Same as for the generate goal. Checked if it exists, e.g. when running after the package phase. */
+    @Parameter(defaultValue = "${project.build.directory}/${project.build.finalName}.jar")
+    private String projectJar;
+
+    /** Same as for the generate goal. */
+    @Parameter(defaultValue = "false")
+    private boolean strictEqual;
+
+    /** Same as for the generate goal. */
+    @Parameter
+    private File duplicatesReport;
+
+    /** Same as for the generate goal. */
+    @Parameter
+    private File indexCache;
+
+    /** Same as for the generate goal. */
+    @Parameter(defaultValue = "128")
+    private long indexCacheSize = 128;
+
+    /** Number of threads to open dependency jars. Defaults to the number of processors. */
+    @Parameter
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(property = "project", required = true, readonly = true)
+    private MavenProject project;
+
+    public ConflictsMojo() {
+        this.world = GenerateMojo.createWorld();
+    }
+
+    public void execute() throws MojoExecutionException {
+        try {
+            doExecute();
+        } catch (IOException e) {
+            throw new MojoExecutionException("cannot check conflicts: " + e.getMessage(), e);
+        }
+    }
+
+    private void doExecute() throws IOException, MojoExecutionException {
+        List<Artifact> artifacts;
+        List<File> files;
+        List<CentralDirectory> jars;
+        List<Sources.Group> duplicates;
+        Set<String> equals;
+        Set<String> overwrites;
+        long started;
+        FileNode report;
+
+        started = System.currentTimeMillis();
+        artifacts = getDependencies();
+        files = new ArrayList<>();
+        for (Artifact artifact : artifacts) {
+            if (artifact == project.getArtifact()) {
+                // the artifact file may be the classes directory
+                files.add(new File(projectJar));
+            } else if (artifact.getFile() == null) {
+                throw new IllegalStateException("unresolved dependency: " + GenerateMojo.gav(artifact) + ".jar");
+            } else {
+                files.add(artifact.getFile());
+            }
+        }
+        try (Merger merger = new Merger(world, getLog(), threads, strictEqual, GenerateMojo.rules(remove, concat, overwrite, equal))) {
+            jars = merger.open(files, indexCache == null ? null : new IndexCache(indexCache, indexCacheSize * 1024 * 1024));
+            for (int i = 0; i < jars.size(); i++) {
+                merger.add(jars.get(i), artifacts.get(i));
+            }
+            duplicates = merger.duplicates();
+            equals = new LinkedHashSet<>();
+            overwrites = new LinkedHashSet<>();
+            for (Sources.Group group : duplicates) {
+                suggest(merger, group, equals, overwrites);
+            }
+        }
+        getLog().info("checked " + artifacts.size() + " jars in " + (System.currentTimeMillis() - started) + " ms");
+        if (duplicatesReport != null) {
+            report = world.file(duplicatesReport);
+            report.getParent().mkdirsOpt();
+            report.writeString(GenerateMojo.duplicatesJson(duplicates));
+            getLog().info("duplicates report: " + report + " (" + duplicates.size() + " groups)");
+        }
+        if (!duplicates.isEmpty()) {
+            getLog().error("suggested configuration:");
+            if (!equals.isEmpty()) {
+                getLog().error("  <equal>" + join(equal, equals) + "</equal>");
+            }
+            if (!overwrites.isEmpty()) {
+                getLog().error("  <overwrite>" + join(overwrite, overwrites) + "</overwrite>");
+            }
+            throw new MojoExecutionException(duplicates.size() + " groups of duplicate files, see above");
+        }
+        getLog().info("no conflicts");
+    }
+
+    /** Logs the group with its equal and different paths. */
+    private void suggest(Merger merger, Sources.Group group, Set<String> equals, Set<String> overwrites) {
+        List<String> same;
+        List<String> different;
+
+        same = new ArrayList<>();
+        different = new ArrayList<>();
+        for (String path : group.paths) {
+            (merger.isDifferent(path) ? different : same).add(path);
+        }
+        getLog().error("duplicate files in " + group.artifacts + ":");
+        if (!same.isEmpty()) {
+            getLog().error("  equal content, suggested for equal:");
+            log(same);
+            equals.addAll(same);
+        }
+        if (!different.isEmpty()) {
+            getLog().error("  different content, suggested for overwrite (last wins) or concat:");
+            log(different);
+            overwrites.addAll(different);
+        }
+    }
+
+    private void log(List<String> paths) {
+        for (String path : paths) {
+            getLog().error("    " + path);
+        }
+    }
+
+    private static String join(String configured, Set<String> patterns) {
+        List<String> all;
+
+        all = new ArrayList<>();
+        if (!configured.isEmpty()) {
+            all.add(configured);
+        }
+        all.addAll(patterns);
+        return Separator.COMMA.join(all);
+    }
+
+    private List<Artifact> getDependencies() {
+        List<Artifact> artifacts;
+        File jar;
+
+        artifacts = new ArrayList<>();
+        for (Artifact artifact : project.getArtifacts()) {
+            if (scopes.contains(artifact.getScope())) {
+                artifacts.add(artifact);
+            }
+        }
+        jar = new File(projectJar);
+        if (jar.isFile()) {
+            artifacts.add(project.getArtifact());
+        } else {
+            getLog().info("project jar not found, checking dependencies only: " + jar);
+        }
+        return artifacts;
+    }
+}
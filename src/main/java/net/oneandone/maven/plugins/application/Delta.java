@@ -0,0 +1,274 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Entry-level delta between two versions of an application file. The delta contains the launch script of the new version
+ * and, for each entry of the new version in order, either the index of an equal entry of the old version (stored as runs
+ * of consecutive indexes), or name and header with the index of an entry with equal compressed data (found by name, or by
+ * checksum and sizes if it was moved), or name, header and the compressed data itself. Applying the delta writes the new
+ * version with ZipWriter, thus the new version has to be written by ZipWriter as well to be reproduced byte by byte; see
+ * normalize. Both versions are identified by their SHA-256 hash, which is checked when applying.
+ *
+ * Delta is part of this plugin, not of the application file. It only needs the JDK, thus hosts can apply deltas with the
+ * plugin jar alone:
+ * java -cp application-&lt;version&gt;.jar net.oneandone.maven.plugins.application.Delta apply old delta new
+ */
+public final class Delta {
+    private static final int MAGIC = 0x41505044;
+    private static final int VERSION = 1;
+    private static final int COPY = 0;
+    private static final int DATA = 1;
+    private static final int SAME = 2;
+
+    private Delta() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int copied;
+
+        if (args.length == 4 && args[0].equals("create")) {
+            copied = create(new File(args[1]), new File(args[2]), new File(args[3]));
+            System.out.println(args[3] + ": " + new File(args[3]).length() + " bytes, " + copied + " entries copied");
+        } else if (args.length == 4 && args[0].equals("apply")) {
+            apply(new File(args[1]), new File(args[2]), new File(args[3]));
+            System.out.println(args[3] + ": ok");
+        } else {
+            System.err.println("usage: Delta create <old> <new> <delta>");
+            System.err.println("       Delta apply <old> <delta> <new>");
+            System.exit(1);
+        }
+    }
+
+    /** Rewrites the file with ZipWriter, so it can be reproduced from a delta. Entries are copied as they are. */
+    public static void normalize(File file) throws IOException {
+        ZipWriter.rewrite(file, (zip, writer) -> {
+            for (CentralDirectory.Entry entry : zip.entries) {
+                try (InputStream raw = zip.raw(entry)) {
+                    writer.copy(entry, entry.name, raw);
+                }
+            }
+        });
+    }
+
+    /** @return number of entries copied from the old version */
+    public static int create(File from, File to, File delta) throws IOException {
+        Map<String, Integer> byName;
+        Map<String, Integer> byContent;
+        Integer src;
+        long prefix;
+        byte[] script;
+        int runStart;
+        int runLength;
+        int copied;
+
+        runStart = 0;
+        runLength = 0;
+        copied = 0;
+        try (CentralDirectory base = CentralDirectory.open(from); CentralDirectory target = CentralDirectory.open(to);
+             DataOutputStream dest = new DataOutputStream(new DeflaterOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(delta.toPath()), 64 * 1024)))) {
+            byName = new HashMap<>();
+            byContent = new HashMap<>();
+            for (int i = 0; i < base.entries.size(); i++) {
+                byName.put(base.entries.get(i).name, i);
+                byContent.putIfAbsent(content(base.entries.get(i)), i);
+            }
+            dest.writeInt(MAGIC);
+            dest.writeInt(VERSION);
+            dest.writeUTF(Fingerprint.sha256(from));
+            dest.writeUTF(Fingerprint.sha256(to));
+            prefix = prefix(target, to.length());
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(to.toPath()))) {
+                script = in.readNBytes((int) prefix);
+            }
+            dest.writeInt(script.length);
+            dest.write(script);
+            dest.writeInt(target.entries.size());
+            for (CentralDirectory.Entry entry : target.entries) {
+                src = byName.get(entry.name);
+                if (src != null && content(base.entries.get(src)).equals(content(entry))
+                        && base.entries.get(src).dosTime == entry.dosTime) {
+                    if (runLength == 0 || src != runStart + runLength) {
+                        run(dest, runStart, runLength);
+                        runStart = src;
+                        runLength = 0;
+                    }
+                    runLength++;
+                    copied++;
+                    continue;
+                }
+                run(dest, runStart, runLength);
+                runLength = 0;
+                if (src == null || !content(base.entries.get(src)).equals(content(entry))) {
+                    src = byContent.get(content(entry));
+                }
+                dest.writeByte(src != null ? COPY : DATA);
+                name(dest, entry.name);
+                dest.writeInt(entry.method);
+                dest.writeInt(entry.dosTime);
+                dest.writeLong(entry.crc);
+                dest.writeLong(entry.compressedSize);
+                dest.writeLong(entry.size);
+                if (src != null) {
+                    dest.writeInt(src);
+                    copied++;
+                } else {
+                    try (InputStream raw = target.raw(entry)) {
+                        if (raw.transferTo(dest) != entry.compressedSize) {
+                            throw new EOFException(to + ": unexpected end of entry data: " + entry.name);
+                        }
+                    }
+                }
+            }
+            run(dest, runStart, runLength);
+        } catch (IOException | RuntimeException e) {
+            delta.delete();
+            throw e;
+        }
+        return copied;
+    }
+
+    /** Writes the new version of the file; fails if the old version or the result do not match the hashes in the delta. */
+    public static void apply(File from, File delta, File to) throws IOException {
+        File tmp;
+        String fromHash;
+        String toHash;
+        CentralDirectory.Entry entry;
+        CentralDirectory.Entry src;
+        int kind;
+        int runStart;
+        int runLength;
+        int count;
+
+        tmp = new File(to.getPath() + ".tmp");
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new BufferedInputStream(Files.newInputStream(delta.toPath()), 64 * 1024)));
+             CentralDirectory base = CentralDirectory.open(from)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(delta + ": not a delta file or unsupported version");
+            }
+            fromHash = in.readUTF();
+            toHash = in.readUTF();
+            if (!fromHash.equals(Fingerprint.sha256(from))) {
+                throw new IOException(from + ": delta was created for a different file");
+            }
+            try (OutputStream dest = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 64 * 1024)) {
+                dest.write(in.readNBytes(in.readInt()));
+                try (ZipWriter writer = new ZipWriter(dest)) {
+                    count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        kind = in.readByte();
+                        if (kind == SAME) {
+                            runStart = in.readInt();
+                            runLength = in.readInt();
+                            for (int j = 0; j < runLength; j++) {
+                                src = base(base, runStart + j);
+                                try (InputStream raw = base.raw(src)) {
+                                    writer.copy(src, src.name, raw);
+                                }
+                            }
+                            i += runLength - 1;
+                        } else {
+                            // arguments are evaluated left to right, i.e. in the order written by create
+                            entry = new CentralDirectory.Entry(name(in), 0, in.readInt(), in.readInt(), in.readLong(),
+                                    in.readLong(), in.readLong(), 0);
+                            src = kind == COPY ? base(base, in.readInt()) : null;
+                            if (src == null) {
+                                writer.copy(entry, entry.name, in);
+                            } else if (content(src).equals(content(entry))) {
+                                try (InputStream raw = base.raw(src)) {
+                                    writer.copy(entry, entry.name, raw);
+                                }
+                            } else {
+                                throw new IOException(from + ": entry to copy differs: " + src.name);
+                            }
+                        }
+                    }
+                }
+            }
+            if (!toHash.equals(Fingerprint.sha256(tmp))) {
+                throw new IOException(to + ": result does not match the hash recorded in the delta");
+            }
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        to.setExecutable(true, false);
+    }
+
+    /** Writes a run of unchanged entries, if any */
+    private static void run(DataOutputStream dest, int start, int length) throws IOException {
+        if (length > 0) {
+            dest.writeByte(SAME);
+            dest.writeInt(start);
+            dest.writeInt(length);
+        }
+    }
+
+    private static CentralDirectory.Entry base(CentralDirectory zip, int index) throws IOException {
+        if (index < 0 || index >= zip.entries.size()) {
+            throw new IOException(zip + ": no entry " + index);
+        }
+        return zip.entries.get(index);
+    }
+
+    /** @return key to find entries with equal compressed data */
+    private static String content(CentralDirectory.Entry entry) {
+        return entry.method + " " + entry.crc + " " + entry.size + " " + entry.compressedSize;
+    }
+
+    /** @return length of the data before the first entry, i.e. the launch script */
+    private static long prefix(CentralDirectory zip, long length) {
+        long result;
+
+        result = length;
+        for (CentralDirectory.Entry entry : zip.entries) {
+            result = Math.min(result, entry.localOffset);
+        }
+        return result;
+    }
+
+    private static void name(DataOutputStream dest, String name) throws IOException {
+        byte[] bytes;
+
+        bytes = name.getBytes(StandardCharsets.UTF_8);
+        dest.writeInt(bytes.length);
+        dest.write(bytes);
+    }
+
+    private static String name(DataInputStream src) throws IOException {
+        return new String(src.readNBytes(src.readInt()), StandardCharsets.UTF_8);
+    }
+}
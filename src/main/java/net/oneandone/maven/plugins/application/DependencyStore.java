@@ -0,0 +1,199 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import net.oneandone.sushi.archive.Archive;
+import net.oneandone.sushi.fs.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dependency content shared by all executions in a Maven session, e.g. several generate executions in one module or
+ * modules of a reactor with similar dependencies: jars loaded for the default merge, central directories for streaming
+ * merge and the rules classification of their entries. Entries are keyed by path, size and modification time of the jar,
+ * thus a changed jar is loaded again. Thread-safe: concurrent executions needing the same jar wait for the first one to
+ * load it. When the estimated memory usage exceeds the budget, least recently used entries are evicted.
+ *
+ * Loaded jars are shared, callers must not modify them.
+ */
+public class DependencyStore {
+    /** weak keys, the store is garbage collected with its session */
+    private static final Map<Object, DependencyStore> SESSIONS = new WeakHashMap<>();
+
+    public static DependencyStore forSession(Object session, long budget) {
+        synchronized (SESSIONS) {
+            return SESSIONS.computeIfAbsent(session, k -> new DependencyStore(budget));
+        }
+    }
+
+    private final long budget;
+    private final ConcurrentHashMap<String, Slot> slots;
+    private final AtomicLong size;
+    private final AtomicLong clock;
+    private final AtomicInteger hits;
+    private final AtomicInteger misses;
+
+    public DependencyStore(long budget) {
+        this.budget = budget;
+        this.slots = new ConcurrentHashMap<>();
+        this.size = new AtomicLong();
+        this.clock = new AtomicLong();
+        this.hits = new AtomicInteger();
+        this.misses = new AtomicInteger();
+    }
+
+    /** @return jar loaded with Archive.loadJar; do not modify */
+    public Archive archive(World world, File jar) throws IOException {
+        return get("archive " + key(jar), () -> Archive.loadJar(world.file(jar)), archive -> memory(jar));
+    }
+
+    /** @param cache to read the entries from if they're not in this store; null to parse the central directory */
+    public CentralDirectory open(File jar, IndexCache cache) throws IOException {
+        List<CentralDirectory.Entry> entries;
+
+        entries = get("entries " + key(jar), () -> {
+            try (CentralDirectory zip = cache == null ? CentralDirectory.open(jar) : cache.open(jar)) {
+                return zip.entries;
+            }
+        }, list -> {
+            long result;
+
+            result = 0;
+            for (CentralDirectory.Entry entry : list) {
+                result += 2L * entry.name.length() + 128;
+            }
+            return result;
+        });
+        return CentralDirectory.open(jar, entries);
+    }
+
+    /**
+     * @param rules identifies the rules used to classify
+     * @return rules by entry index, -1 for entries not classified yet; shared by all executions with the same rules
+     */
+    public int[] classification(File jar, String rules, int count) throws IOException {
+        return get("rules " + key(jar) + " " + rules, () -> {
+            int[] result;
+
+            result = new int[count];
+            Arrays.fill(result, -1);
+            return result;
+        }, array -> 4L * array.length);
+    }
+
+    private static String key(File jar) throws IOException {
+        return jar.getCanonicalPath() + " " + jar.length() + " " + jar.lastModified();
+    }
+
+    /** @return estimated heap usage of the loaded jar */
+    private static long memory(File jar) throws IOException {
+        long result;
+
+        result = 0;
+        try (CentralDirectory zip = CentralDirectory.open(jar)) {
+            for (CentralDirectory.Entry entry : zip.entries) {
+                result += entry.size + 4L * entry.name.length() + 256;
+            }
+        }
+        return result;
+    }
+
+    /** Estimates the heap usage of a loaded value */
+    private interface Estimate<T> {
+        long get(T value) throws IOException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String key, Callable<T> load, Estimate<T> estimate) throws IOException {
+        Slot slot;
+        Slot created;
+        T result;
+
+        created = new Slot(new FutureTask<Object>(load::call));
+        slot = slots.putIfAbsent(key, created);
+        if (slot == null) {
+            misses.incrementAndGet();
+            slot = created;
+            slot.task.run();
+            try {
+                result = (T) Merger.get(slot.task);
+            } catch (IOException | RuntimeException e) {
+                slots.remove(key, slot);
+                throw e;
+            }
+            slot.size = estimate.get(result);
+            size.addAndGet(slot.size);
+            slot.loaded = true;
+            evict();
+        } else {
+            hits.incrementAndGet();
+            result = (T) Merger.get(slot.task);
+        }
+        slot.used = clock.incrementAndGet();
+        return result;
+    }
+
+    /** Removes least recently used entries until the estimated size is within the budget */
+    private synchronized void evict() {
+        List<Map.Entry<String, Slot>> loaded;
+
+        if (size.get() <= budget) {
+            return;
+        }
+        loaded = new ArrayList<>();
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+            if (entry.getValue().loaded) {
+                loaded.add(entry);
+            }
+        }
+        loaded.sort(Comparator.comparingLong(entry -> entry.getValue().used));
+        for (int i = 0; i < loaded.size() && size.get() > budget; i++) {
+            if (slots.remove(loaded.get(i).getKey(), loaded.get(i).getValue())) {
+                size.addAndGet(-loaded.get(i).getValue().size);
+            }
+        }
+    }
+
+    public String toString() {
+        return slots.size() + " entries, " + (size.get() / 1024 / 1024) + " mb, " + hits + " hits, " + misses + " misses";
+    }
+
+    private static class Slot {
+        public final FutureTask<Object> task;
+        public volatile long used;
+        public volatile long size;
+        public volatile boolean loaded;
+
+        Slot(FutureTask<Object> task) {
+            this.task = task;
+            this.used = 0;
+            this.size = 0;
+            this.loaded = false;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Descriptor files that several dependencies may contain and that are merged instead of being reported as duplicates:
+ * plexus components, service provider configurations, sisu indexes and spring handlers, schemas, factories and imports.
+ * Plexus components are merged with StAX, i.e. the component elements of each fragment are copied to the result without
+ * building a document. Line and properties based descriptors keep each line or key once and drop comments. Fragments are
+ * merged in dependency order, thus the first dependency's service provider comes first. Descriptors matching an explicit
+ * concat, overwrite or equal rule are not merged.
+ */
+public final class Descriptors {
+    public static final String PLEXUS = "META-INF/plexus/components.xml";
+    public static final String SERVICES = "META-INF/services/";
+    private static final String ROOT = "component-set";
+    private static final String COMPONENTS = "components";
+
+    private Descriptors() {
+    }
+
+    public static boolean isDescriptor(String path) {
+        return kind(path) != null;
+    }
+
+    /** @return merge writing to dest, or null if path is not a descriptor */
+    public static Merge open(String path, OutputStream dest) throws IOException {
+        Kind kind;
+
+        kind = kind(path);
+        if (kind == null) {
+            return null;
+        }
+        switch (kind) {
+            case PLEXUS:
+                return new Plexus(dest);
+            case LINES:
+                return new Lines(dest);
+            case PROPERTIES:
+                return new PropertiesMerge(dest, false);
+            case LISTS:
+                return new PropertiesMerge(dest, true);
+            default:
+                throw new IllegalStateException(kind.toString());
+        }
+    }
+
+    private enum Kind {
+        PLEXUS, LINES, PROPERTIES, LISTS
+    }
+
+    private static Kind kind(String path) {
+        if (path.equals(PLEXUS)) {
+            return Kind.PLEXUS;
+        }
+        if (path.startsWith(SERVICES) && path.length() > SERVICES.length() && path.indexOf('/', SERVICES.length()) == -1) {
+            return Kind.LINES;
+        }
+        if (path.equals("META-INF/sisu/javax.inject.Named")) {
+            return Kind.LINES;
+        }
+        if (path.startsWith("META-INF/spring/") && path.endsWith(".imports") && path.indexOf('/', 16) == -1) {
+            return Kind.LINES;
+        }
+        if (path.equals("META-INF/spring.factories") || path.equals("META-INF/spring.components")) {
+            return Kind.LISTS;
+        }
+        // only known properties files; other spring.* files (e.g. spring.tooling) are left to the rules
+        if (path.equals("META-INF/spring.handlers") || path.equals("META-INF/spring.schemas")) {
+            return Kind.PROPERTIES;
+        }
+        return null;
+    }
+
+    /** Merges fragments into a single descriptor */
+    public interface Merge {
+        /** Does not close src */
+        void add(InputStream src, String origin) throws IOException;
+
+        /** Writes the remaining output; does not close dest */
+        void finish() throws IOException;
+    }
+
+    /**
+     * Merges descriptors and concatenated files in memory, for callers that cannot keep the fragments until the end.
+     * Concatenated files get the fragments in reverse order, each terminated by a line separator, like Merger.
+     */
+    public static class Buffers {
+        private final byte[] lineSeparator;
+        private final Map<String, ByteArrayOutputStream> buffers;
+        private final Map<String, Merge> merges;
+
+        public Buffers(byte[] lineSeparator) {
+            this.lineSeparator = lineSeparator;
+            this.buffers = new LinkedHashMap<>();
+            this.merges = new LinkedHashMap<>();
+        }
+
+        public void add(String path, InputStream src, String origin) throws IOException {
+            ByteArrayOutputStream buffer;
+            Merge merge;
+
+            merge = merges.get(path);
+            if (merge == null) {
+                buffer = new ByteArrayOutputStream();
+                merge = open(path, buffer);
+                if (merge == null) {
+                    throw new IllegalArgumentException("not a descriptor: " + path);
+                }
+                buffers.put(path, buffer);
+                merges.put(path, merge);
+            }
+            merge.add(src, origin);
+        }
+
+        public void concat(String path, InputStream src, String origin) throws IOException {
+            ByteArrayOutputStream buffer;
+            Merge merge;
+
+            merge = merges.get(path);
+            if (merge == null) {
+                buffer = new ByteArrayOutputStream();
+                merge = new Concat(buffer, lineSeparator);
+                buffers.put(path, buffer);
+                merges.put(path, merge);
+            }
+            merge.add(src, origin);
+        }
+
+        /** @return merged descriptors by path, in the order they were first added */
+        public Map<String, byte[]> finish() throws IOException {
+            Map<String, byte[]> result;
+
+            result = new LinkedHashMap<>();
+            for (Map.Entry<String, Merge> entry : merges.entrySet()) {
+                entry.getValue().finish();
+                result.put(entry.getKey(), buffers.get(entry.getKey()).toByteArray());
+            }
+            return result;
+        }
+    }
+
+    //--
+
+    /** Copies the children of component-set/components of all fragments into a single components element */
+    private static class Plexus implements Merge {
+        private static final XMLInputFactory INPUT;
+
+        static {
+            INPUT = XMLInputFactory.newInstance();
+            INPUT.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            INPUT.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        }
+
+        private final XMLStreamWriter dest;
+
+        Plexus(OutputStream dest) throws IOException {
+            try {
+                this.dest = XMLOutputFactory.newInstance().createXMLStreamWriter(dest, "UTF-8");
+                this.dest.writeStartDocument("UTF-8", "1.0");
+                this.dest.writeCharacters("\n");
+                this.dest.writeStartElement(ROOT);
+                this.dest.writeCharacters("\n  ");
+                this.dest.writeStartElement(COMPONENTS);
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        public void add(InputStream src, String origin) throws IOException {
+            XMLStreamReader reader;
+            int depth;
+
+            try {
+                reader = INPUT.createXMLStreamReader(src);
+                try {
+                    reader.nextTag();
+                    if (!reader.getLocalName().equals(ROOT)) {
+                        throw new IOException(origin + ": expected " + ROOT);
+                    }
+                    depth = 1;
+                    while (depth > 0) {
+                        switch (reader.next()) {
+                            case XMLStreamConstants.START_ELEMENT:
+                                if (!reader.getLocalName().equals(COMPONENTS)) {
+                                    throw new IOException(origin + ": unknown element: " + reader.getLocalName());
+                                }
+                                copyChildren(reader);
+                                break;
+                            case XMLStreamConstants.END_ELEMENT:
+                                depth--;
+                                break;
+                            default:
+                                // whitespace and comments between components elements
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(origin + ": " + e.getMessage(), e);
+            }
+        }
+
+        /** Copies the content of the current element; returns at its end tag */
+        private void copyChildren(XMLStreamReader reader) throws XMLStreamException {
+            int depth;
+
+            depth = 0;
+            while (true) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        startElement(reader);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (depth == 0) {
+                            return;
+                        }
+                        depth--;
+                        dest.writeEndElement();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        dest.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        dest.writeCData(reader.getText());
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        dest.writeComment(reader.getText());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        dest.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                        break;
+                    default:
+                        // entity references are resolved by the reader
+                }
+            }
+        }
+
+        private void startElement(XMLStreamReader reader) throws XMLStreamException {
+            String prefix;
+
+            prefix = reader.getPrefix();
+            if (prefix == null || prefix.isEmpty()) {
+                dest.writeStartElement(reader.getLocalName());
+            } else {
+                dest.writeStartElement(prefix, reader.getLocalName(), reader.getNamespaceURI());
+            }
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                if (reader.getNamespacePrefix(i) == null) {
+                    dest.writeDefaultNamespace(reader.getNamespaceURI(i));
+                } else {
+                    dest.writeNamespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+                }
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                prefix = reader.getAttributePrefix(i);
+                if (prefix == null || prefix.isEmpty()) {
+                    dest.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                } else {
+                    dest.writeAttribute(prefix, reader.getAttributeNamespace(i), reader.getAttributeLocalName(i),
+                            reader.getAttributeValue(i));
+                }
+            }
+        }
+
+        public void finish() throws IOException {
+            try {
+                dest.writeCharacters("\n  ");
+                dest.writeEndElement();
+                dest.writeCharacters("\n");
+                dest.writeEndElement();
+                dest.writeEndDocument();
+                dest.writeCharacters("\n");
+                dest.flush();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /** Keeps the fragments until finish, then writes each of them once, last fragment first */
+    private static class Concat implements Merge {
+        private final OutputStream dest;
+        private final byte[] lineSeparator;
+        private final List<byte[]> fragments;
+
+        Concat(OutputStream dest, byte[] lineSeparator) {
+            this.dest = dest;
+            this.lineSeparator = lineSeparator;
+            this.fragments = new ArrayList<>();
+        }
+
+        public void add(InputStream src, String origin) throws IOException {
+            fragments.add(src.readAllBytes());
+        }
+
+        public void finish() throws IOException {
+            byte[] fragment;
+            int start;
+
+            for (int i = fragments.size() - 1; i >= 0; i--) {
+                fragment = fragments.get(i);
+                dest.write(fragment);
+                start = fragment.length - lineSeparator.length;
+                if (start < 0 || !Arrays.equals(fragment, start, fragment.length, lineSeparator, 0, lineSeparator.length)) {
+                    dest.write(lineSeparator);
+                }
+            }
+        }
+    }
+
+    /** Each non-empty line once, in the order they are first seen; drops comments, i.e. everything after # */
+    private static class Lines implements Merge {
+        private final OutputStream dest;
+        private final Set<String> lines;
+
+        Lines(OutputStream dest) {
+            this.dest = dest;
+            this.lines = new LinkedHashSet<>();
+        }
+
+        public void add(InputStream src, String origin) throws IOException {
+            BufferedReader reader;
+            int idx;
+
+            reader = new BufferedReader(new InputStreamReader(src, StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                idx = line.indexOf('#');
+                if (idx != -1) {
+                    line = line.substring(0, idx);
+                }
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+
+        public void finish() throws IOException {
+            Writer writer;
+
+            writer = new OutputStreamWriter(dest, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * Properties with each key once. With lists, values are comma-separated lists (like spring.factories) and the values
+     * of all fragments are joined; otherwise, later fragments overwrite the values of previous ones.
+     */
+    private static class PropertiesMerge implements Merge {
+        private final OutputStream dest;
+        private final boolean lists;
+        private final Map<String, Set<String>> values;
+
+        PropertiesMerge(OutputStream dest, boolean lists) {
+            this.dest = dest;
+            this.lists = lists;
+            this.values = new LinkedHashMap<>();
+        }
+
+        public void add(InputStream src, String origin) throws IOException {
+            Map<String, Set<String>> result;
+            Properties properties;
+
+            result = values;
+            properties = new Properties() {
+                @Override
+                public synchronized Object put(Object key, Object value) {
+                    Set<String> set;
+
+                    set = result.computeIfAbsent((String) key, k -> new LinkedHashSet<>());
+                    if (lists) {
+                        for (String item : ((String) value).split(",")) {
+                            if (!item.trim().isEmpty()) {
+                                set.add(item.trim());
+                            }
+                        }
+                    } else {
+                        set.clear();
+                        set.add((String) value);
+                    }
+                    return null;
+                }
+            };
+            properties.load(src);
+        }
+
+        public void finish() throws IOException {
+            Writer writer;
+
+            writer = new OutputStreamWriter(dest, StandardCharsets.ISO_8859_1);
+            for (Map.Entry<String, Set<String>> entry : values.entrySet()) {
+                writer.write(escape(entry.getKey(), true));
+                writer.write('=');
+                writer.write(escape(String.join(",", entry.getValue()), false));
+                writer.write('\n');
+            }
+            writer.flush();
+        }
+
+        private static String escape(String str, boolean key) {
+            StringBuilder result;
+            char c;
+
+            result = new StringBuilder();
+            for (int i = 0; i < str.length(); i++) {
+                c = str.charAt(i);
+                if (c == '\\' || c == '=' || c == ':' || c == '#' || c == '!' || (c == ' ' && (key || i == 0))) {
+                    result.append('\\').append(c);
+                } else if (c == '\n') {
+                    result.append("\\n");
+                } else if (c == '\r') {
+                    result.append("\\r");
+                } else if (c == '\t') {
+                    result.append("\\t");
+                } else if (c < 0x20 || c > 0x7e) {
+                    result.append(String.format("\\u%04x", (int) c));
+                } else {
+                    result.append(c);
+                }
+            }
+            return result.toString();
+        }
+    }
+}
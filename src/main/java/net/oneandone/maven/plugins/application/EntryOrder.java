@@ -0,0 +1,102 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a zip file with the specified entries moved to the front, e.g. the classes loaded at startup, so they are
+ * close to each other in the file. Data prepended to the zip file (i.e. the launch script) is kept. Entries are
+ * copied without re-compressing them.
+ */
+public final class EntryOrder {
+    private static final String SOURCE = " source: ";
+
+    /** Entries kept in front of all others, in this order */
+    static final String[] HEAD = { "META-INF/", "META-INF/MANIFEST.MF", PackageIndex.INDEX_LIST, PackageIndex.PACKAGES_LIST };
+
+    private EntryOrder() {
+    }
+
+    /** @return class files listed in a -Xlog:class+load log with decorations "none", in load order */
+    public static List<String> loadedClasses(File log) throws IOException {
+        List<String> result;
+        int idx;
+
+        result = new ArrayList<>();
+        try (BufferedReader src = Files.newBufferedReader(log.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = src.readLine(); line != null; line = src.readLine()) {
+                idx = line.indexOf(SOURCE);
+                if (idx > 0) {
+                    result.add(line.substring(0, idx).replace('.', '/') + ".class");
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The manifest and index files stay in front, followed by the first entries, in the order specified. Names not found in the file
+     * are ignored.
+     *
+     * @return number of entries moved to the front
+     */
+    public static int apply(File file, List<String> first) throws IOException {
+        int[] count;
+
+        count = new int[1];
+        ZipWriter.rewrite(file, (zip, writer) -> {
+            Map<String, CentralDirectory.Entry> remaining;
+            List<CentralDirectory.Entry> order;
+            CentralDirectory.Entry entry;
+
+            remaining = new LinkedHashMap<>();
+            for (CentralDirectory.Entry e : zip.entries) {
+                remaining.put(e.name, e);
+            }
+            order = new ArrayList<>(zip.entries.size());
+            for (String name : HEAD) {
+                entry = remaining.remove(name);
+                if (entry != null) {
+                    order.add(entry);
+                }
+            }
+            for (String name : first) {
+                entry = remaining.remove(name);
+                if (entry != null) {
+                    order.add(entry);
+                    count[0]++;
+                }
+            }
+            order.addAll(remaining.values());
+            for (CentralDirectory.Entry e : order) {
+                try (InputStream raw = zip.raw(e)) {
+                    writer.copy(e, e.name, raw);
+                }
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Describes the inputs of an application file, one line per input. Files are described by path, size and
+ * either modification time or a hash of their content. Values are quoted, thus a fingerprint can be
+ * stored in a file and compared line by line.
+ */
+public class Fingerprint {
+    private final StringBuilder builder;
+
+    public Fingerprint() {
+        this.builder = new StringBuilder();
+    }
+
+    public Fingerprint add(String key, Object value) {
+        builder.append(key).append('=');
+        Json.string(builder, String.valueOf(value));
+        builder.append('\n');
+        return this;
+    }
+
+    /** @return false if the file cannot be fingerprinted, e.g. because it's a directory */
+    public boolean addFile(String key, File file, boolean hash) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        // with a hash, the modification time is not needed; it changes whenever the file is re-created with equal content
+        add(key, file.getAbsolutePath() + " " + file.length() + " " + (hash ? sha256(file) : file.lastModified()));
+        return true;
+    }
+
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        byte[] buffer;
+        int count;
+
+        digest = digest();
+        buffer = new byte[64 * 1024];
+        try (InputStream src = Files.newInputStream(file.toPath())) {
+            while ((count = src.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /** @return hash of this fingerprint, e.g. to name cache files */
+    public String sha256() {
+        return hex(digest().digest(builder.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    public String toString() {
+        return builder.toString();
+    }
+}
@@ -20,14 +20,12 @@ import net.oneandone.sushi.archive.ArchiveException;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.World;
 import net.oneandone.sushi.fs.file.FileNode;
-import net.oneandone.sushi.io.OS;
 import net.oneandone.sushi.util.Separator;
 import net.oneandone.sushi.util.Strings;
 import net.oneandone.sushi.util.Substitution;
 import net.oneandone.sushi.util.SubstitutionException;
-import net.oneandone.sushi.xml.Builder;
-import net.oneandone.sushi.xml.Dom;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -36,26 +34,23 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
-import proguard.ClassPath;
-import proguard.ClassPathEntry;
-import proguard.Configuration;
-import proguard.ConfigurationParser;
 import proguard.ParseException;
-import proguard.ProGuard;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintStream;
 import java.net.InetAddress;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -63,6 +58,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.jar.Attributes;
 
 /**
@@ -113,6 +109,34 @@ public class GenerateMojo extends BaseMojo {
     @Parameter(defaultValue = "")
     private String equal = "";
 
+    /**
+     * True to merge dependency jars entry by entry, streaming the entries into the application file. Needs much less memory
+     * than the default merge, which loads all dependencies into memory. Handles concat, remove, overwrite and equal the same way.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean streaming;
+
+    /**
+     * Number of threads used in streaming mode to open dependency jars and to compress entries. The generated file
+     * is the same for any number of threads.
+     */
+    @Parameter(defaultValue = "1")
+    private int threads = 1;
+
+    /**
+     * In streaming mode, duplicate files are considered equal if they have the same size and CRC32 checksum. Set this to true
+     * to also compare their content byte by byte.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean strictEqual;
+
+    /**
+     * File to write duplicate files to, grouped by the artifacts they come from, in JSON format. Written whenever
+     * the dependencies are merged, thus it's an empty list if there are no duplicates. Not written if not specified.
+     */
+    @Parameter
+    private File duplicatesReport;
+
     /**
      * Name of the Java Executable to be invoked by the script. Only a file name, without path.
      */
@@ -138,11 +162,19 @@ public class GenerateMojo extends BaseMojo {
      * The application plugin supplied proper in- and output options, library options and  a keep option for the main
      * method. It also disables obfuscation.
      *
-     * Everything else you need can be defined here.
+     * Everything else you need can be defined here. Relative paths are resolved against the working directory of the build.
      */
     @Parameter(defaultValue = "")
     private String shrinkOptions;
 
+    /**
+     * Java home to run ProGuard with; the application is shrunk against its runtime library. ProGuard reads class files up
+     * to Java 13, thus building with a newer JDK needs a Java 13 or older home here, and classes compiled for Java 13 or
+     * older. Defaults to the JVM running Maven.
+     */
+    @Parameter
+    private String shrinkJavaHome;
+
     /**
      * Copied verbatim to the launch code right before the final Java call,
      * placing each extension on a new line.
@@ -164,6 +196,14 @@ public class GenerateMojo extends BaseMojo {
     @Parameter
     private String launcher = null;
 
+    /**
+     * Built-in launcher template used if no launcher file is specified. "default", or "fast" for a launcher that
+     * resolves the application file with shell builtins and replaces the shell process with java (exec). The fast launcher
+     * forks only if the application is invoked via symlink.
+     */
+    @Parameter(defaultValue = "default")
+    private String builtinLauncher = "default";
+
     /**
      * Scopes to include in compound jar. There's usually no need to touch this option.
      * Defaults to "compile" and "runtime".
@@ -177,6 +217,158 @@ public class GenerateMojo extends BaseMojo {
     @Parameter(defaultValue = "${project.build.directory}/${project.build.finalName}.jar")
     private String projectJar;
 
+    /**
+     * Compression of the entries in the application file: "keep" to leave entries as merged (i.e. deflated), "stored" for
+     * no compression, or a deflate level from 0 to 9. Applied to the final jar, i.e. also after shrinking.
+     */
+    @Parameter(defaultValue = "keep")
+    private String compression = "keep";
+
+    /**
+     * Compression for entries matching patterns, overriding the compression parameter. Comma-separated list of
+     * pattern=compression, e.g. "**&#47;*.class=stored". The first matching pattern wins.
+     */
+    @Parameter(defaultValue = "")
+    private String compressionOverrides = "";
+
+    /**
+     * True to add META-INF/INDEX.LIST, a jar index listing the packages of the application file, and META-INF/PACKAGES.LIST,
+     * listing the entries of each package, so class loaders and tools can find packages without scanning all entries.
+     * Entries in multi-release directories count for the package they define. Index files of dependencies are replaced.
+     * Note that Java 18 and newer ignore INDEX.LIST.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean index;
+
+    /**
+     * True to split the application into two files: a dependency layer with the files of all dependencies, and the
+     * application file with the files of the project jar, the manifest and merged or concatenated files. The dependency
+     * layer is named &lt;name&gt;-dependencies-&lt;hash&gt;.jar, with a hash of the dependency contents, merge rules and
+     * compression; it is only written if it does not exist yet, thus code changes rebuild and redeploy the small application
+     * file only. The application file references the layer via its Class-Path manifest attribute, both files have to be
+     * in the same directory. Always merges like streaming mode; cannot be combined with shrink or index.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean layered;
+
+    /**
+     * Previous version of the application file, e.g. the last release. If the file exists, an entry-level delta against it is
+     * written to &lt;name&gt;.delta, with entries of the previous version referenced instead of included. Hosts with the previous
+     * version apply it with java -cp &lt;plugin jar&gt; net.oneandone.maven.plugins.application.Delta apply &lt;previous&gt;
+     * &lt;delta&gt; &lt;new&gt;, which checks the result by its SHA-256 hash. To be reproducible, the application file is
+     * rewritten with the plugin's zip writer before.
+     */
+    @Parameter
+    private File deltaBase;
+
+    /**
+     * Timestamp for reproducible output: seconds since the epoch or ISO 8601 with offset, e.g. 2024-01-01T00:00:00Z. If
+     * specified, equal inputs give byte-identical application files: all entries get this time, entries are sorted by name
+     * (unless orderEntries is set), Implementation-Version is this timestamp and Implementation-Vendor the organization
+     * instead of user and host name, thus there's no host name lookup.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
+    /**
+     * True to create a class data sharing archive for faster startup. After generating the application file, the main class
+     * is run once with trainingArguments and -XX:ArchiveClassesAtExit. The archive is stored next to the application file, named
+     * like the application file plus ".jsa". The built-in launcher uses the archive if it exists; a JVM other than the one
+     * that created the archive ignores it. Needs Java 13 or newer for the training run and Java 9 or newer to launch.
+     * The archive is not attached. It's only valid for the application file's exact size and modification time, thus it
+     * usually works on the build host only; on other hosts, run the application once with the environment variable NAME_CDS=train
+     * to create it there, NAME being the application name in upper case.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean cds;
+
+    /**
+     * True to order the entries of the application file by class loading: the main class is run once with trainingArguments
+     * and -Xlog:class+load, and the classes loaded are moved to the front of the jar, in load order. Startup times before
+     * and after are reported in the build log. Needs Java 9 or newer for the training run.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean orderEntries;
+
+    /**
+     * Arguments passed to the main class for training runs (cds and orderEntries). The run should exercise the code paths
+     * that matter for startup, it should not need input and it should terminate.
+     */
+    @Parameter
+    private List<String> trainingArguments = new ArrayList<>();
+
+    /**
+     * Java executable for training runs. Defaults to the JVM running Maven. Only this JVM will use the cds archive.
+     */
+    @Parameter
+    private String trainingJava;
+
+    /**
+     * Directory to cache shrunk jars. A build with the same classes, resources and shrinkOptions as a previous build takes
+     * the shrunk jar from the cache instead of running ProGuard. Can be shared by all builds on a machine, e.g.
+     * ${user.home}/.m2/application-shrink. No cache if not specified. Files read by shrinkOptions, e.g. with -include or
+     * -applymapping, are part of the cache key; shrinkOptions that write files, e.g. -printmapping, always run ProGuard.
+     */
+    @Parameter
+    private File shrinkCache;
+
+    /**
+     * Maximum size of the shrink cache in megabytes. Least recently used jars are removed if the cache grows larger.
+     */
+    @Parameter(defaultValue = "256")
+    private long shrinkCacheSize = 256;
+
+    /**
+     * Directory to cache the central directories of dependency jars in streaming mode, so they are not parsed again by
+     * later builds. Can be shared by all builds on a machine, e.g. ${user.home}/.m2/application-index. No cache if not specified.
+     */
+    @Parameter
+    private File indexCache;
+
+    /**
+     * Maximum size of the index cache in megabytes. Least recently used entries are removed if the cache grows larger.
+     */
+    @Parameter(defaultValue = "128")
+    private long indexCacheSize = 128;
+
+    /**
+     * Memory budget in megabytes for dependencies shared by all executions in the Maven session, e.g. several generate
+     * executions in one module or reactor modules with similar dependencies. Loaded jars (default merge) or central
+     * directories and the classification of their entries (streaming merge) are reused, only the project jar, rules and
+     * manifest are processed again. Least recently used dependencies are evicted if the budget is exceeded. 0 to disable.
+     */
+    @Parameter(defaultValue = "0")
+    private long sharedMergeSize;
+
+    /**
+     * True to skip generating the application file if its inputs did not change since the last build: dependencies,
+     * the project jar, the plugin, all parameters and the launcher template. The inputs are recorded in a
+     * fingerprint file next to the application file. The application file is attached in either case.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean incremental;
+
+    /**
+     * File to write build metrics to, in JSON format: wall time, bytes in and out, entry and duplicate counts and heap
+     * high-water mark of each phase, i.e. script, loading and merging each dependency, save, shrink, compress, verify and
+     * training runs. In streaming mode, concatenation happens when saving and is measured there. No metrics if not specified;
+     * note that measuring resets the peak usage of the JVM's heap memory pools, which affects other builds running in the same JVM.
+     */
+    @Parameter
+    private File metricsReport;
+
+    /** True to log a summary of the build metrics, with phases of the same name summed up. */
+    @Parameter(defaultValue = "false")
+    private boolean metricsSummary;
+
+    /**
+     * True to check that all classes referenced by the main class and all service providers declared in META-INF/services
+     * are contained in the application file or the JDK running the build. Catches classes removed by shrinking without
+     * running application code. Uses the number of threads specified by the threads parameter.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean verifyReferences;
+
     /** When true, generated application files will be deployed to the Maven repository */
     @Parameter(defaultValue = "true")
     private boolean attach;
@@ -184,17 +376,25 @@ public class GenerateMojo extends BaseMojo {
     @Parameter(property = "project", required = true, readonly = true)
     private MavenProject project;
 
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
     /**
      * Maven ProjectHelper
      */
     @Component
     protected MavenProjectHelper projectHelper;
 
+    private Metrics metrics;
+
+    /** null if output is not reproducible */
+    private Instant timestamp;
+
     public GenerateMojo() throws IOException {
         this(createWorld(), null, null, null, null, null, null);
     }
 
-    private static World createWorld() {
+    static World createWorld() {
         World world = World.createMinimal();
         world.withStandardFilesystems(false);
         return world;
@@ -209,8 +409,61 @@ public class GenerateMojo extends BaseMojo {
         this.java = java;
         this.path = path;
         this.options = "";
+        this.metrics = new Metrics(false);
+    }
+
+    //-- configuration for programmatic use, e.g. by benchmarks; Maven injects the parameters instead
+
+    public void setProject(MavenProject project) {
+        this.project = project;
+    }
+
+    public void setProjectJar(String projectJar) {
+        this.projectJar = projectJar;
     }
 
+    public void setRemove(String remove) {
+        this.remove = remove;
+    }
+
+    public void setConcat(String concat) {
+        this.concat = concat;
+    }
+
+    public void setOverwrite(String overwrite) {
+        this.overwrite = overwrite;
+    }
+
+    public void setEqual(String equal) {
+        this.equal = equal;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setShrink(boolean shrink) {
+        this.shrink = shrink;
+    }
+
+    public void setShrinkOptions(String shrinkOptions) {
+        this.shrinkOptions = shrinkOptions;
+    }
+
+    public void setShrinkJavaHome(String shrinkJavaHome) {
+        this.shrinkJavaHome = shrinkJavaHome;
+    }
+
+    public void setAttach(boolean attach) {
+        this.attach = attach;
+    }
+
+    //--
+
     public void execute() throws MojoExecutionException {
         try {
             doExecute();
@@ -220,47 +473,325 @@ public class GenerateMojo extends BaseMojo {
     }
 
     public void doExecute() throws IOException, MojoExecutionException {
+        String fingerprint;
+
         validate(name);
+        if (layered && (shrink || index)) {
+            throw new MojoExecutionException("layered cannot be combined with shrink or index");
+        }
+        try {
+            timestamp = Reproducible.parse(outputTimestamp);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        metrics = new Metrics(metricsReport != null || metricsSummary);
         // do not wipe the directory because other plugins might already have copied stuff into it
         dir.mkdirsOpt();
-        script();
-        jar();
-        getLog().info(">" + size(getFile().toPath().toFile()) + getFile());
-        verify();
+        try (Metrics.Phase total = metrics.start("generate")) {
+            fingerprint = incremental ? fingerprint() : null;
+            if (fingerprint != null && upToDate(fingerprint)) {
+                getLog().info("up-to-date: " + getFile());
+            } else {
+                getFingerprintFile().deleteFileOpt();
+                script();
+                jar();
+                compress();
+                if (index) {
+                    index();
+                }
+                if (timestamp != null) {
+                    reproducible();
+                }
+                getLog().info(">" + size(getFile().toPath().toFile()) + getFile());
+                verify();
+                if (orderEntries) {
+                    orderEntries();
+                }
+                if (deltaBase != null) {
+                    delta();
+                }
+                if (cds) {
+                    cds();
+                }
+                if (fingerprint != null) {
+                    getFingerprintFile().writeString(fingerprint + output());
+                }
+                total.bytesOut = getFile().size();
+            }
+        }
+        writeMetrics();
         if (attach) {
             projectHelper.attachArtifact(project, type, classifier, getFile().toPath().toFile());
+            if (layered) {
+                projectHelper.attachArtifact(project, "jar", classifier + "-dependencies", getLayerFile().toPath().toFile());
+            }
+        }
+    }
+
+    private void writeMetrics() throws IOException {
+        FileNode file;
+
+        if (metricsSummary) {
+            for (String line : metrics.summary()) {
+                getLog().info(line);
+            }
+        }
+        if (metricsReport != null) {
+            file = world.file(metricsReport);
+            file.getParent().mkdirsOpt();
+            file.writeString(metrics.toJson(name));
+            getLog().debug("metrics report: " + file);
+        }
+    }
+
+    //-- incremental builds
+
+    public FileNode getFingerprintFile() {
+        return dir.join(name + ".fingerprint");
+    }
+
+    private boolean upToDate(String fingerprint) throws IOException {
+        FileNode file;
+
+        file = getFingerprintFile();
+        if (!file.exists() || !getFile().exists() || (cds && !getCdsFile().exists()) || (layered && getLayerFile() == null)
+                || (deltaBase != null && deltaBase.isFile() && !getDeltaFile().exists())) {
+            return false;
         }
+        if (!file.readString().equals(fingerprint + output())) {
+            getLog().debug("fingerprint changed: " + file);
+            return false;
+        }
+        return true;
+    }
+
+    /** @return fingerprint line for the generated file, to detect modifications by others */
+    private String output() throws IOException {
+        return new Fingerprint().add("output", getFile().size() + " " + getFile().getLastModified()).toString();
     }
 
-    private void verify() throws MojoExecutionException {
-        URL url;
-        URLClassLoader loader;
-        Class<?> clazz;
+    /** @return null if the inputs cannot be fingerprinted */
+    private String fingerprint() throws IOException, MojoExecutionException {
+        Fingerprint result;
+        Metrics.Phase phase;
 
+        result = new Fingerprint();
+        phase = metrics.start("fingerprint");
         try {
-            url = getFile().toPath().toFile().toURI().toURL();
-        } catch (MalformedURLException e) {
-            throw new IllegalStateException();
+            return fingerprint(result);
+        } finally {
+            phase.close();
         }
-        loader = new URLClassLoader(new URL[] { url });
+    }
+
+    private String fingerprint(Fingerprint result) throws IOException, MojoExecutionException {
+        File plugin;
+        Artifact artifact;
+        List<Artifact> artifacts;
+
         try {
-            clazz = loader.loadClass(main);
-        } catch (ClassNotFoundException e) {
-            throw new MojoExecutionException("main class not found: " + main, e);
+            // toURI decodes escaped characters, e.g. spaces in the repository path
+            plugin = new File(GenerateMojo.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        if (!result.addFile("plugin", plugin, false)) {
+            return null;
+        }
+        result.add("name", name);
+        result.add("dir", dir);
+        result.add("permissions", permissions);
+        result.add("main", main);
+        result.add("options", options);
+        result.add("concat", concat);
+        result.add("remove", remove);
+        result.add("overwrite", overwrite);
+        result.add("equal", equal);
+        result.add("streaming", streaming);
+        result.add("strictEqual", strictEqual);
+        result.add("duplicatesReport", duplicatesReport);
+        result.add("java", java);
+        result.add("path", path);
+        result.add("shrink", shrink);
+        result.add("shrinkOptions", shrinkOptions);
+        result.add("shrinkJavaHome", shrinkJavaHome);
+        result.add("verifyReferences", verifyReferences);
+        result.add("scopes", scopes);
+        result.add("compression", compression + " " + compressionOverrides);
+        result.add("index", index);
+        result.add("layered", layered);
+        result.add("outputTimestamp", outputTimestamp);
+        if (deltaBase == null || !result.addFile("deltaBase", deltaBase, false)) {
+            result.add("deltaBase", deltaBase);
+        }
+        result.add("training", cds + " " + orderEntries + " " + trainingArguments + " " + trainingJava());
+        result.add("launcher", launcherTemplate());
+        result.add("project", project.getId() + " " + project.getName() + " " + getOrganization());
+        artifacts = getDependencies();
+        for (int i = 0; i < artifacts.size(); i++) {
+            artifact = artifacts.get(i);
+            result.add("artifact", artifact.getId());
+            // the last artifact is the project jar, which is re-created by every build
+            if (artifact.getFile() == null || !result.addFile("file", artifact.getFile(), i == artifacts.size() - 1)) {
+                getLog().debug("cannot fingerprint " + artifact.getId());
+                return null;
+            }
+        }
+        return result.toString();
+    }
+
+    //-- training runs
+
+    public FileNode getCdsFile() {
+        return dir.join(name + ".jsa");
+    }
+
+    private String trainingJava() {
+        return trainingJava != null ? trainingJava : new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    }
+
+    /** Creates the class data sharing archive */
+    private void cds() throws IOException, MojoExecutionException {
+        FileNode archive;
+
+        archive = getCdsFile();
+        archive.deleteFileOpt();
+        try (Metrics.Phase phase = metrics.start("cds")) {
+            train("cds", "-XX:ArchiveClassesAtExit=" + archive.getAbsolute());
+            if (!archive.exists()) {
+                throw new MojoExecutionException("cds training run did not create an archive: " + archive);
+            }
+            phase.bytesOut = archive.size();
+        }
+        getLog().info(">" + size(archive.toPath().toFile()) + archive);
+    }
+
+    /** Moves the classes loaded at startup to the front */
+    private void orderEntries() throws IOException, MojoExecutionException {
+        FileNode log;
+        long before;
+        long after;
+        int count;
+        Metrics.Phase timing;
+
+        log = world.getTemp().createTempFile();
+        try (Metrics.Phase phase = metrics.start("orderEntries")) {
+            before = startup();
+            train("order", "-Xlog:class+load=info:file=" + log.getAbsolute() + ":none");
+            count = EntryOrder.apply(getFile().toPath().toFile(), EntryOrder.loadedClasses(log.toPath().toFile()));
+            phase.entries = count;
+        } finally {
+            log.deleteFileOpt();
+        }
+        getFile().setPermissions(permissions);
+        timing = metrics.start("orderEntries");
+        try {
+            after = startup();
+        } finally {
+            timing.close();
+        }
+        getLog().info("ordered " + count + " classes loaded at startup; startup time " + before + " ms before, "
+                + after + " ms after (best of " + STARTUP_RUNS + " runs)");
+    }
+
+    private static final int STARTUP_RUNS = 3;
+
+    /** @return best wall clock time in milliseconds of running the main class with the training arguments */
+    private long startup() throws IOException, MojoExecutionException {
+        long result;
+        long started;
+
+        result = Long.MAX_VALUE;
+        for (int i = 0; i < STARTUP_RUNS; i++) {
+            started = System.nanoTime();
+            run(command(), ProcessBuilder.Redirect.DISCARD);
+            result = Math.min(result, (System.nanoTime() - started) / 1000000);
+        }
+        return result;
+    }
+
+    private void train(String what, String... jvmOptions) throws IOException, MojoExecutionException {
+        List<String> command;
+        int exitCode;
+
+        command = command(jvmOptions);
+        getLog().info(what + " training run: " + Separator.SPACE.join(command));
+        exitCode = run(command, ProcessBuilder.Redirect.PIPE);
+        if (exitCode != 0) {
+            getLog().warn(what + " training run returned " + exitCode);
+        }
+    }
+
+    private List<String> command(String... jvmOptions) {
+        List<String> command;
+
+        command = new ArrayList<>();
+        command.add(trainingJava());
+        command.addAll(Arrays.asList(jvmOptions));
+        command.add("-cp");
+        command.add(getFile().getAbsolute());
+        command.add(main);
+        command.addAll(trainingArguments);
+        return command;
+    }
+
+    /** @param output PIPE to log the output, DISCARD to ignore it */
+    private int run(List<String> command, ProcessBuilder.Redirect output) throws IOException, MojoExecutionException {
+        Process process;
+
+        process = new ProcessBuilder(command).directory(dir.toPath().toFile()).redirectErrorStream(true).redirectOutput(output).start();
+        process.getOutputStream().close();
+        if (output == ProcessBuilder.Redirect.PIPE) {
+            try (BufferedReader src = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                for (String line = src.readLine(); line != null; line = src.readLine()) {
+                    getLog().info("  " + line);
+                }
+            }
         }
         try {
-            clazz.getDeclaredMethod("main", String[].class);
-        } catch (NoSuchMethodException e) {
-            throw new MojoExecutionException("main class has no main(String[]) method: " + main, e);
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("training run interrupted", e);
+        }
+    }
+
+    //--
+
+    /** Checks the main class without loading it; optionally checks that references can be resolved */
+    private void verify() throws IOException, MojoExecutionException {
+        Verifier.ClassInfo info;
+        List<String> unresolved;
+
+        try (Metrics.Phase phase = metrics.start("verify");
+             Verifier verifier = layered ? new Verifier(getFile().toPath().toFile(), getLayerFile().toPath().toFile())
+                     : new Verifier(getFile().toPath().toFile())) {
+            info = verifier.read(main);
+            if (info == null) {
+                throw new MojoExecutionException("main class not found: " + main);
+            }
+            if (!info.main) {
+                throw new MojoExecutionException("main class has no public static main(String[]) method: " + main);
+            }
+            if (verifyReferences) {
+                unresolved = verifier.unresolved(info, threads);
+                phase.entries = info.references.size();
+                if (!unresolved.isEmpty()) {
+                    throw new MojoExecutionException("unresolved references:\n  " + Separator.on("\n  ").join(unresolved));
+                }
+            }
         }
     }
 
     private void script() throws IOException, MojoExecutionException {
         Node file;
 
-        file = getFile();
-        file.writeString(launcherTemplate());
-        file.setPermissions(permissions);
+        try (Metrics.Phase phase = metrics.start("script")) {
+            file = getFile();
+            file.writeString(launcherTemplate());
+            file.setPermissions(permissions);
+            phase.bytesOut = file.size();
+        }
     }
 
     public String launcherTemplate() throws IOException, MojoExecutionException {
@@ -276,8 +807,18 @@ public class GenerateMojo extends BaseMojo {
         variables.put("options", options);
         variables.put("optionsVariable", getAppVarPrefix() + "_OPTS");
         variables.put("javaVariable", getAppVarPrefix() + "_JAVA");
+        variables.put("cdsVariable", getAppVarPrefix() + "_CDS");
         variables.put("extensions", Separator.RAW_LINE.join(extensions));
-        src = launcher != null ? world.file(launcher) : world.resource("launcher");
+        variables.put("cds", Boolean.toString(cds));
+        if (launcher != null) {
+            src = world.file(launcher);
+        } else if ("default".equals(builtinLauncher)) {
+            src = world.resource("launcher");
+        } else if ("fast".equals(builtinLauncher)) {
+            src = world.resource("launcher-fast");
+        } else {
+            throw new MojoExecutionException("unknown builtin launcher: " + builtinLauncher);
+        }
         str = src.readString();
         try {
             return S.apply(str, variables);
@@ -337,112 +878,320 @@ public class GenerateMojo extends BaseMojo {
     }
 
     public void jar() throws IOException, MojoExecutionException {
+        Rules rules;
         Archive archive;
+        FileNode in;
 
+        rules = rules();
+        if (streaming || layered) {
+            streamingJar(rules);
+            return;
+        }
         archive = Archive.createJar(world);
-        addDependencies(archive);
-        if (!archive.data.join(main.replace('.', '/') + ".class").isFile()) {
+        addDependencies(archive, rules);
+        if (!archive.data.join(mainPath()).isFile()) {
             throw new MojoExecutionException("main class not found: " + main);
         }
         mainAttributes(archive.manifest.getMainAttributes());
         if (shrink) {
-            proguard(archive);
+            in = proguardInput();
+            try (Metrics.Phase phase = metrics.start("save")) {
+                archive.save(in);
+                phase.bytesOut = in.size();
+            }
+            proguard(in);
         } else {
-            try (OutputStream dest = getFile().newAppendStream()) {
-                archive.save(dest);
+            try (Metrics.Phase phase = metrics.start("save")) {
+                phase.bytesOut = -fileSize();
+                try (OutputStream dest = getFile().newAppendStream()) {
+                    archive.save(dest);
+                }
+                phase.bytesOut += fileSize();
             }
         }
     }
 
-    private synchronized void proguard(Archive archive) throws IOException, MojoExecutionException {
-        ProGuard pg;
-        Configuration config;
+    /** @return size of the application file, 0 if it does not exist yet, e.g. if jar is invoked without the script */
+    private long fileSize() throws IOException {
+        return getFile().isFile() ? getFile().size() : 0;
+    }
 
-        FileNode dir = world.getTemp().createTempDirectory();
+    private void streamingJar(Rules rules) throws IOException, MojoExecutionException {
+        List<CentralDirectory> jars;
+        CentralDirectory projectZip;
+        FileNode layer;
         FileNode in;
-        FileNode out;
-        FileNode log;
-        PrintStream oldOut;
-        PrintStream oldErr;
 
-        in = dir.join("in.jar");
-        out = dir.join("out.jar");
-        archive.save(in);
+        if (threads < 1) {
+            throw new MojoExecutionException("invalid number of threads: " + threads);
+        }
+        try (Merger merger = new Merger(world, getLog(), threads, strictEqual, rules)) {
+            jars = addDependencies(merger);
+            if (!merger.contains(mainPath())) {
+                throw new MojoExecutionException("main class not found: " + main);
+            }
+            mainAttributes(merger.manifest.getMainAttributes());
+            if (layered) {
+                layer = layer(jars.subList(0, jars.size() - 1), rules);
+                merger.manifest.getMainAttributes().putValue("Class-Path", layer.getName());
+                projectZip = jars.get(jars.size() - 1);
+                try (Metrics.Phase phase = metrics.start("save")) {
+                    phase.bytesOut = -fileSize();
+                    try (OutputStream dest = getFile().newAppendStream()) {
+                        merger.save(dest, zip -> zip == projectZip, true);
+                    }
+                    phase.bytesOut += fileSize();
+                }
+            } else if (shrink) {
+                in = proguardInput();
+                try (Metrics.Phase phase = metrics.start("save")) {
+                    merger.save(in);
+                    phase.bytesOut = in.size();
+                }
+                proguard(in);
+            } else {
+                try (Metrics.Phase phase = metrics.start("save")) {
+                    phase.bytesOut = -fileSize();
+                    try (OutputStream dest = getFile().newAppendStream()) {
+                        merger.save(dest);
+                    }
+                    phase.bytesOut += fileSize();
+                }
+            }
+        }
+    }
+
+    //-- delta
+
+    public FileNode getDeltaFile() {
+        return dir.join(name + ".delta");
+    }
+
+    private void delta() throws IOException {
+        File file;
+        FileNode delta;
+        FileNode check;
+        int copied;
+
+        delta = getDeltaFile();
+        delta.deleteFileOpt();
+        if (!deltaBase.isFile()) {
+            getLog().warn("delta base not found, no delta written: " + deltaBase);
+            return;
+        }
+        file = getFile().toPath().toFile();
+        try (Metrics.Phase phase = metrics.start("delta")) {
+            Delta.normalize(file);
+            getFile().setPermissions(permissions);
+            phase.bytesIn = file.length();
+            copied = Delta.create(deltaBase, file, delta.toPath().toFile());
+            // fail now rather than on the hosts
+            check = world.getTemp().createTempFile();
+            try {
+                Delta.apply(deltaBase, delta.toPath().toFile(), check.toPath().toFile());
+            } finally {
+                check.deleteFileOpt();
+            }
+            phase.bytesOut = delta.size();
+        }
+        getLog().info(">" + size(delta.toPath().toFile()) + delta + " (" + copied + " entries from " + deltaBase + ")");
+    }
+
+    //-- layers
+
+    /** @return the dependency layer, null if there is none */
+    public FileNode getLayerFile() throws IOException {
+        for (FileNode file : dir.list()) {
+            if (file.getName().startsWith(name + "-dependencies-") && file.getName().endsWith(".jar")) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the dependency layer unless it exists; removes previous layers.
+     *
+     * @param jars dependencies without the project jar
+     */
+    private FileNode layer(List<CentralDirectory> jars, Rules rules) throws IOException, MojoExecutionException {
+        List<Artifact> artifacts;
+        Fingerprint fingerprint;
+        FileNode result;
+        FileNode tmp;
+
+        fingerprint = new Fingerprint();
+        fingerprint.add("rules", remove + "\n" + concat + "\n" + overwrite + "\n" + equal);
+        fingerprint.add("strictEqual", strictEqual);
+        fingerprint.add("compression", compression + " " + compressionOverrides);
+        fingerprint.add("outputTimestamp", timestamp);
+        for (CentralDirectory jar : jars) {
+            fingerprint.add("jar", jar.entries.size());
+            for (CentralDirectory.Entry entry : jar.entries) {
+                fingerprint.add("entry", entry.name + " " + entry.size + " " + entry.crc);
+            }
+        }
+        result = dir.join(name + "-dependencies-" + fingerprint.sha256().substring(0, 16) + ".jar");
+        if (result.exists()) {
+            getLog().info("dependency layer up-to-date: " + result);
+            return result;
+        }
+        for (FileNode file : dir.list()) {
+            if (file.getName().startsWith(name + "-dependencies-") && file.getName().endsWith(".jar")) {
+                getLog().debug("removing previous layer " + file);
+                file.deleteFile();
+            }
+        }
+        artifacts = getDependencies();
+        tmp = dir.join(result.getName() + ".tmp");
+        // a merger of the dependencies only, the project jar must not affect the layer
+        try (Metrics.Phase phase = metrics.start("layer"); Merger merger = new Merger(world, getLog(), threads, strictEqual, rules)) {
+            for (int i = 0; i < jars.size(); i++) {
+                merger.add(jars.get(i), artifacts.get(i));
+            }
+            try (OutputStream dest = tmp.newOutputStream()) {
+                merger.save(dest, null, false);
+            }
+            compress(tmp.toPath().toFile());
+            if (timestamp != null) {
+                Reproducible.apply(tmp.toPath().toFile(), timestamp, true);
+            }
+            phase.bytesOut = tmp.size();
+        } catch (IOException | RuntimeException e) {
+            tmp.deleteFileOpt();
+            throw e;
+        }
+        Files.move(tmp.toPath(), result.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        getLog().info(">" + size(result.toPath().toFile()) + result);
+        return result;
+    }
+
+    //--
+
+    private void compress() throws IOException, MojoExecutionException {
+        compress(getFile().toPath().toFile());
+        getFile().setPermissions(permissions);
+    }
+
+    private void compress(File file) throws IOException, MojoExecutionException {
+        Compression policy;
+        long before;
+        long started;
 
-        config = new Configuration();
         try {
-            addConfig("-keep public class " + main + " {\n  public static void main(java.lang.String[]); \n}\n", config);
-        } catch (ParseException e) {
-            throw new IllegalStateException(e);
-        }
-        config.shrink = true;
-        config.obfuscate = false;
-        config.optimize = true;
-        config.libraryJars = cp(runtime());
-        config.programJars = cp(in);
-        config.programJars.add(new ClassPathEntry(out.toPath().toFile(), true));
+            policy = Compression.create(compression, split(compressionOverrides));
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        if (policy.isKeep()) {
+            return;
+        }
+        before = file.length();
+        started = System.nanoTime();
+        try (Metrics.Phase phase = metrics.start("compress")) {
+            policy.apply(file);
+            phase.bytesIn = before;
+            phase.bytesOut = file.length();
+        }
+        getLog().info("compression " + compression + (compressionOverrides.isEmpty() ? "" : " " + compressionOverrides) + ": "
+                + size(before).trim() + " -> " + size(file).trim() + ", " + (System.nanoTime() - started) / 1000000 + " ms");
+    }
+
+    private void reproducible() throws IOException {
+        try (Metrics.Phase phase = metrics.start("reproducible")) {
+            Reproducible.apply(getFile().toPath().toFile(), timestamp, !orderEntries);
+            phase.bytesOut = getFile().size();
+        }
+        getFile().setPermissions(permissions);
+        getLog().info("reproducible output, timestamp " + timestamp);
+    }
+
+    private void index() throws IOException {
+        int count;
+
+        try (Metrics.Phase phase = metrics.start("index")) {
+            count = PackageIndex.apply(getFile().toPath().toFile(), getFile().getName());
+            phase.entries = count;
+        }
+        getFile().setPermissions(permissions);
+        getLog().info("indexed " + count + " packages");
+    }
+
+    private Rules rules() throws MojoExecutionException {
+        return rules(remove, concat, overwrite, equal);
+    }
+
+    static Rules rules(String remove, String concat, String overwrite, String equal) throws MojoExecutionException {
+        try {
+            return Rules.compile(split(remove), split(concat), split(overwrite), split(equal));
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("invalid pattern: " + e.getMessage(), e);
+        }
+    }
+
+    private String mainPath() {
+        return main.replace('.', '/') + ".class";
+    }
+
+    private FileNode proguardInput() throws IOException {
+        return world.getTemp().createTempDirectory().join("in.jar");
+    }
+
+    private void proguard(FileNode in) throws IOException, MojoExecutionException {
+        String config;
+        FileNode out;
+        FileNode log;
+        Shrinker shrinker;
+        boolean cached;
+
+        out = in.getParent().join("out.jar");
+        config = "-dontobfuscate\n-keep public class " + main + " {\n  public static void main(java.lang.String[]); \n}\n"
+                + (shrinkOptions == null ? "" : shrinkOptions);
+        // -D properties of the command line, ProGuard substitutes <name> in file names
+        shrinker = new Shrinker(getLog(), new File(new File(shrinkJavaHome(), "bin"), "java").getPath(),
+                runtime().toPath().toFile(), world.getWorking().toPath().toFile(),
+                session == null ? new Properties() : session.getUserProperties(), shrinkCache, shrinkCacheSize * 1024 * 1024);
         try {
-            addConfig(shrinkOptions, config);
+            // fail early with a proper message; ProGuard itself runs in a separate process
+            shrinker.parse(config);
         } catch (ParseException e) {
             throw new MojoExecutionException("invalid shrink options: " + e.getMessage(), e);
         }
         log = world.file(projectJar).getParent().join(name + "-proguard.log");
-        oldOut = System.out;
-        oldErr = System.err;
-        try (PrintStream stream = new PrintStream(log.newOutputStream())) {
-            System.setOut(stream);
-            System.setErr(stream);
-            pg = new ProGuard(config);
-            pg.execute();
-        } catch (IOException e) {
-            getLog().error("shrink failed, see " + log + " for details");
-            throw e;
-        } finally {
-            System.setOut(oldOut);
-            System.setErr(oldErr);
+        try (Metrics.Phase phase = metrics.start("shrink")) {
+            cached = shrinker.run(in.toPath().toFile(), out.toPath().toFile(), config, log.toPath().toFile());
+            phase.bytesIn = in.size();
+            phase.bytesOut = out.size();
         }
-        getLog().info("-" + size(in.size() - out.size()) + "shrunk by http://proguard.sourceforge.net/");
+        getLog().info("-" + size(in.size() - out.size()) + "shrunk by http://proguard.sourceforge.net/" + (cached ? " (cached)" : ""));
         try (OutputStream dest = getFile().newAppendStream()) {
             out.copyFileTo(dest);
         }
     }
 
-    private void addConfig(String str, Configuration dest) throws ParseException, IOException {
-        ConfigurationParser parser;
-
-        parser = new ConfigurationParser(str, "note", world.getWorking().toPath().toFile(), System.getProperties());
-        try {
-            parser.parse(dest);
-        } finally {
-            parser.close();
-        }
+    private String shrinkJavaHome() {
+        return shrinkJavaHome != null ? shrinkJavaHome : System.getProperty("java.home");
     }
 
     private FileNode runtime() throws IOException {
+        FileNode home;
         FileNode result;
 
-        result = world.file(System.getProperty("java.home"));
-        result.checkDirectory();
-        if (OS.beforeJava9()) {
-            result = result.join("lib/rt.jar");
-        } else {
-            result = result.join("jmods/java.base.jmod");
+        home = world.file(shrinkJavaHome());
+        home.checkDirectory();
+        result = home.join("jmods/java.base.jmod");
+        if (!result.isFile()) {
+            // before Java 9; a jdk home has the runtime in its jre directory
+            result = home.join("lib/rt.jar");
+            if (!result.isFile()) {
+                result = home.join("jre/lib/rt.jar");
+            }
         }
         result.checkFile();
         return result;
     }
 
-    private static ClassPath cp(FileNode... entries) {
-        ClassPath result;
-
-        result = new ClassPath();
-        for (FileNode entry : entries) {
-            result.add(new ClassPathEntry(entry.toPath().toFile(), false));
-        }
-        return result;
-    }
-
-    private static String gav(Artifact artifact) {
+    static String gav(Artifact artifact) {
         return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
     }
 
@@ -454,15 +1203,18 @@ public class GenerateMojo extends BaseMojo {
         return Strings.padLeft("" + ((length + 512) / 1024), 5) + " kb ";
     }
 
-    private void addDependencies(Archive archive) throws IOException, MojoExecutionException {
-        Document plexus;
+    private void addDependencies(Archive archive, Rules rules) throws IOException, MojoExecutionException {
+        DependencyStore store;
+        Descriptors.Buffers merges;
         Sources sources;
         File file;
+        Node<?> dest;
         Archive add;
         FileNode jar;
         List<String> duplicatePaths;
 
-        plexus = null;
+        store = store();
+        merges = new Descriptors.Buffers(world.os.lineSeparator.getSeparator().getBytes(world.getSettings().encoding));
         sources = new Sources();
         duplicatePaths = new ArrayList<>();
         for (Artifact artifact : getDependencies()) {
@@ -472,41 +1224,176 @@ public class GenerateMojo extends BaseMojo {
                 throw new IllegalStateException("unresolved dependency: " + gav(artifact) + ".jar");
             }
             jar = world.file(file);
-            add = Archive.loadJar(jar);
-            sources.addAll(add.data, artifact);
-            removeFiles(add.data);
-            concat(add.data, archive.data);
-            copy(add.data, archive.data, duplicatePaths);
-            archive.mergeManifest(add.manifest);
-            plexus = plexusMerge(archive.data, plexus);
+            try (Metrics.Phase phase = metrics.start("load", gav(artifact))) {
+                // the project jar changes with every build
+                add = store != null && artifact != project.getArtifact() ? store.archive(world, file) : Archive.loadJar(jar);
+                phase.bytesIn = file.length();
+            }
+            try (Metrics.Phase phase = metrics.start("copy", gav(artifact))) {
+                phase.duplicates = -duplicatePaths.size();
+                phase.entries = copy(add.data, archive.data, rules, artifact, sources, duplicatePaths, merges);
+                phase.duplicates += duplicatePaths.size();
+                archive.mergeManifest(add.manifest);
+            }
+        }
+        if (store != null) {
+            getLog().debug("shared merge store: " + store);
         }
-        if (duplicatePaths.size() > 0) {
-            sources.retain(duplicatePaths);
-            throw new MojoExecutionException("duplicate files:\n" + sources.toString());
+        checkDuplicates(sources.group(duplicatePaths));
+        try (Metrics.Phase phase = metrics.start("merged")) {
+            for (Map.Entry<String, byte[]> entry : merges.finish().entrySet()) {
+                getLog().debug("merged " + entry.getKey());
+                phase.entries(1);
+                dest = archive.data.join(entry.getKey());
+                dest.getParent().mkdirsOpt();
+                dest.writeBytes(entry.getValue());
+            }
         }
-        plexusSave(archive.data, plexus);
     }
 
-    private static final String ROOT = "component-set";
-    private static final String COMPONENTS = "components";
+    /** @return the jars opened, the project jar last */
+    private List<CentralDirectory> addDependencies(Merger merger) throws IOException, MojoExecutionException {
+        DependencyStore store;
+        String rulesKey;
+        List<Artifact> artifacts;
+        List<File> files;
+        List<CentralDirectory> jars;
+        File file;
 
-    private void copy(Node<?> srcdir, Node<?> destdir, List<String> duplicates) throws IOException, MojoExecutionException {
-        List<Node> mayEqual;
-        List<Node> mayOverwrite;
+        store = store();
+        rulesKey = remove + "\n" + concat + "\n" + overwrite + "\n" + equal;
+        artifacts = getDependencies();
+        files = new ArrayList<>();
+        for (Artifact artifact : artifacts) {
+            file = artifact.getFile();
+            if (file == null) {
+                throw new IllegalStateException("unresolved dependency: " + gav(artifact) + ".jar");
+            }
+            files.add(file);
+        }
+        try (Metrics.Phase phase = metrics.start("open")) {
+            jars = merger.open(files, indexCache == null ? null : new IndexCache(indexCache, indexCacheSize * 1024 * 1024), store);
+            phase.bytesIn = 0;
+            for (int i = 0; i < jars.size(); i++) {
+                phase.bytesIn += files.get(i).length();
+                phase.entries(jars.get(i).entries.size());
+            }
+        }
+        for (int i = 0; i < artifacts.size(); i++) {
+            getLog().info("+" + size(files.get(i)) + gav(artifacts.get(i)));
+            try (Metrics.Phase phase = metrics.start("add", gav(artifacts.get(i)))) {
+                phase.entries = jars.get(i).entries.size();
+                phase.duplicates = merger.add(jars.get(i), artifacts.get(i),
+                        store == null ? null : store.classification(files.get(i), rulesKey, jars.get(i).entries.size()));
+            }
+        }
+        if (store != null) {
+            getLog().debug("shared merge store: " + store);
+        }
+        checkDuplicates(merger.duplicates());
+        return jars;
+    }
+
+    /** @return null if sharing is disabled */
+    private DependencyStore store() {
+        if (sharedMergeSize <= 0 || session == null) {
+            return null;
+        }
+        return DependencyStore.forSession(session, sharedMergeSize * 1024 * 1024);
+    }
+
+    /** @throws MojoExecutionException if there are duplicates */
+    private void checkDuplicates(List<Sources.Group> duplicates) throws IOException, MojoExecutionException {
+        StringBuilder message;
+
+        if (duplicatesReport != null) {
+            writeDuplicates(duplicates);
+        }
+        if (!duplicates.isEmpty()) {
+            message = new StringBuilder("duplicate files:\n");
+            for (Sources.Group group : duplicates) {
+                message.append(group);
+            }
+            throw new MojoExecutionException(message.toString());
+        }
+    }
+
+    private void writeDuplicates(List<Sources.Group> duplicates) throws IOException {
+        FileNode file;
+
+        file = world.file(duplicatesReport);
+        file.getParent().mkdirsOpt();
+        file.writeString(duplicatesJson(duplicates));
+        getLog().info("duplicates report: " + file + " (" + duplicates.size() + " groups)");
+    }
+
+    static String duplicatesJson(List<Sources.Group> duplicates) {
+        StringBuilder builder;
+
+        builder = new StringBuilder();
+        builder.append("{\n  \"duplicates\": [");
+        for (int i = 0; i < duplicates.size(); i++) {
+            builder.append(i == 0 ? "\n" : ",\n");
+            builder.append("    {\n      \"artifacts\": [");
+            for (int j = 0; j < duplicates.get(i).artifacts.size(); j++) {
+                builder.append(j == 0 ? "" : ", ");
+                Json.string(builder, gav(duplicates.get(i).artifacts.get(j)));
+            }
+            builder.append("],\n      \"paths\": [");
+            for (int j = 0; j < duplicates.get(i).paths.size(); j++) {
+                builder.append(j == 0 ? "\n        " : ",\n        ");
+                Json.string(builder, duplicates.get(i).paths.get(j));
+            }
+            builder.append("\n      ]\n    }");
+        }
+        builder.append(duplicates.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return builder.toString();
+    }
+
+    /**
+     * Removes, concatenates or copies each file from srcdir, depending on the rules matching its path
+     *
+     * @return number of files
+     */
+    private int copy(Node<?> srcdir, Node<?> destdir, Rules rules, Artifact artifact, Sources sources, List<String> duplicates,
+                     Descriptors.Buffers merges) throws IOException {
         Node destfile;
         String relative;
+        int rule;
+        Metrics.Phase concatPhase;
+        int count;
 
-        mayEqual = find(srcdir, equal);
-        mayOverwrite = find(srcdir, overwrite);
+        concatPhase = null;
+        count = 0;
         for (Node<?> srcfile : srcdir.find("**/*")) {
             relative = srcfile.getRelative(srcdir);
             destfile = destdir.join(relative);
             if (srcfile.isDirectory()) {
                 destfile.mkdirsOpt();
             } else {
-                if (destfile.exists()) {
-                    if (srcfile.diff(destfile)) {
-                        if (mayOverwrite.contains(srcfile)) {
+                count++;
+                sources.add(relative, artifact);
+                rule = rules.classify(relative);
+                if ((rule & Rules.REMOVE) != 0) {
+                    getLog().debug("removing " + srcfile);
+                } else if (rule == 0 && Descriptors.isDescriptor(relative)) {
+                    // explicit concat, overwrite or equal rules win
+                    getLog().debug("merging " + relative);
+                    try (InputStream src = srcfile.newInputStream()) {
+                        merges.add(relative, src, srcfile.toString());
+                    }
+                } else if ((rule & Rules.CONCAT) != 0) {
+                    getLog().debug("concatenating " + relative);
+                    if (concatPhase == null) {
+                        concatPhase = metrics.phase("concat", gav(artifact));
+                    }
+                    try (Metrics.Phase phase = concatPhase.start(); InputStream src = srcfile.newInputStream()) {
+                        merges.concat(relative, src, srcfile.toString());
+                        phase.entries(1);
+                    }
+                } else if (destfile.exists()) {
+                    if (srcfile.size() != destfile.size() || srcfile.diff(destfile)) {
+                        if ((rule & Rules.OVERWRITE) != 0) {
                             getLog().debug("overwrite different " + relative);
                             destfile.deleteFile();
                             srcfile.copyFile(destfile);
@@ -514,9 +1401,9 @@ public class GenerateMojo extends BaseMojo {
                             duplicates.add(relative);
                         }
                     } else {
-                        if (mayOverwrite.contains(srcfile)) {
+                        if ((rule & Rules.OVERWRITE) != 0) {
                             getLog().debug("overwrite equal " + relative);
-                        } else if (mayEqual.contains(srcfile)) {
+                        } else if ((rule & Rules.EQUAL) != 0) {
                             getLog().debug("equal " + relative);
                         } else {
                             duplicates.add(relative);
@@ -527,6 +1414,7 @@ public class GenerateMojo extends BaseMojo {
                 }
             }
         }
+        return count;
     }
 
     private static List<String> split(String str) throws MojoExecutionException {
@@ -542,126 +1430,22 @@ public class GenerateMojo extends BaseMojo {
         return result;
     }
 
-    private List<Node> find(Node<?> srcdir, String property) throws IOException, MojoExecutionException {
-        List<Node> mayOverwrite;
-
-        mayOverwrite = new ArrayList<>();
-        for (String p : split(property)) {
-            mayOverwrite.addAll(srcdir.find(p));
-        }
-        return mayOverwrite;
-    }
-
-    private void removeFiles(Node<?> srcdir) throws IOException, MojoExecutionException {
-        for (String p : split(remove)) {
-            removeFiles(srcdir, p);
-        }
-    }
-
-    private void removeFiles(Node<?> srcdir, String removePath) throws IOException {
-        for (Node srcfile : srcdir.find(removePath)) {
-            if (srcfile.isDirectory()) {
-                // skip - I'd delete all contained files
-            } else {
-                getLog().debug("removing " + srcfile);
-                srcfile.deleteFile();
-            }
-        }
-    }
-
-    private void concat(Node srcdir, Node<?> destdir) throws IOException, MojoExecutionException {
-        for (String p : split(concat)) {
-            getLog().debug("concatenating " + p);
-            concat(srcdir, destdir, p);
-        }
-    }
-
-    private void concat(Node<?> srcdir, Node<?> destdir, String concatPath) throws IOException {
-        for (Node srcfile : srcdir.find(concatPath)) {
-            concatOne(srcdir, destdir, srcfile.getRelative(srcdir));
-        }
-    }
-
-    private void concatOne(Node srcdir, Node destdir, String concatPath) throws IOException {
-        Node src;
-        Node dest;
-        String lf;
-        StringBuilder builder;
-        int idx;
-
-        src = srcdir.join(concatPath);
-        dest = destdir.join(concatPath);
-        if (!dest.exists()) {
-            dest.getParent().mkdirsOpt();
-            dest.writeString("");
-        }
-        lf = srcdir.getWorld().os.lineSeparator.getSeparator();
-        builder = new StringBuilder();
-        builder.append(src.readString());
-        idx = builder.lastIndexOf(lf);
-        if (idx + lf.length() != builder.length()) {
-            builder.append(lf);
-        }
-        builder.append(dest.readString());
-        dest.writeString(builder.toString());
-        src.deleteFile();
-        getLog().debug("merged " + concatPath + ":\n" + builder);
-    }
-
-    private Node plexusFile(Node root) {
-        return root.join("META-INF/plexus/components.xml");
-    }
-
-    private void plexusSave(Node root, Document plexus) throws IOException {
-        if (plexus != null) {
-            getLog().debug("merged plexus components");
-            plexusFile(root).writeXml(plexus);
-        }
-    }
-
-    private Document plexusMerge(Node root, Document plexus) throws IOException {
-        Element componentSet;
-        Element components;
-        Node file;
-
-        file = plexusFile(root);
-        if (!file.exists()) {
-            return plexus;
-        }
-        if (plexus == null) {
-            plexus = world.getXml().getBuilder().createDocument(ROOT);
-            components = Builder.element(plexus.getDocumentElement(), COMPONENTS);
-        } else {
-            components = (Element) plexus.getDocumentElement().getFirstChild();
-        }
-        try {
-            componentSet = file.readXml().getDocumentElement();
-        } catch (SAXException e) {
-            throw new IOException(file + ": " + e.getMessage());
-        }
-        if (!componentSet.getTagName().equals(ROOT)) {
-            throw new IOException(file + ": expected " + ROOT);
-        }
-        for (Element e : Dom.getAllChildElements(componentSet)) {
-            if (e.getTagName().equals(COMPONENTS)) {
-                Builder.add(components, e.getChildNodes());
-            } else {
-                throw new IOException("unknown element: " + e.getTagName());
-            }
-        }
-        file.deleteFile();
-        return plexus;
-    }
-
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+    private static final DateTimeFormatter REPRODUCIBLE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss Z")
+            .withZone(ZoneOffset.UTC);
 
     private void mainAttributes(Attributes attributes) throws ArchiveException {
         attributes.putValue("Specification-Title", project.getName());
         attributes.putValue("Specification-Version", project.getVersion());
         attributes.putValue("Specification-Vendor", getOrganization());
         attributes.putValue("Implementation-Title", project.getGroupId() + ":" + project.getArtifactId());
-        attributes.putValue("Implementation-Version", DATE_FORMAT.format(new Date()));
-        attributes.putValue("Implementation-Vendor", getUserEmail());
+        if (timestamp != null) {
+            attributes.putValue("Implementation-Version", REPRODUCIBLE_FORMAT.format(timestamp));
+            attributes.putValue("Implementation-Vendor", getOrganization());
+        } else {
+            attributes.putValue("Implementation-Version", DATE_FORMAT.format(new Date()));
+            attributes.putValue("Implementation-Vendor", getUserEmail());
+        }
         attributes.putValue("Main-class", main);
     }
 
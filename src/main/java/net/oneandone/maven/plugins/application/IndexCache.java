@@ -0,0 +1,209 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent cache of central directories, shared by all builds using the same directory. Each jar gets an index
+ * file named by a hash of the jar's path, size and modification time, so a changed jar gets a new index.
+ * Index files are written to a temp file and renamed, thus concurrent Maven processes never see partial files; an index
+ * that cannot be read counts as a miss. Hits update the modification time of the index, eviction removes the
+ * least recently used index files until the cache is below its maximum size.
+ */
+public class IndexCache {
+    private static final int MAGIC = 0x41504931;
+    private static final String SUFFIX = ".idx";
+
+    private final Path dir;
+    private final long maxSize;
+    private final AtomicInteger hits;
+    private final AtomicInteger misses;
+
+    public IndexCache(File dir, long maxSize) throws IOException {
+        this.dir = dir.toPath();
+        this.maxSize = maxSize;
+        this.hits = new AtomicInteger();
+        this.misses = new AtomicInteger();
+        Files.createDirectories(this.dir);
+    }
+
+    /** Thread-safe. */
+    public CentralDirectory open(File jar) throws IOException {
+        Path index;
+        List<CentralDirectory.Entry> entries;
+        CentralDirectory result;
+
+        index = dir.resolve(key(jar) + SUFFIX);
+        entries = read(index);
+        if (entries != null) {
+            hits.incrementAndGet();
+            try {
+                Files.setLastModifiedTime(index, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // evicted by some other process in the meantime
+            }
+            return CentralDirectory.open(jar, entries);
+        }
+        misses.incrementAndGet();
+        result = CentralDirectory.open(jar);
+        try {
+            write(index, result.entries);
+        } catch (IOException e) {
+            // the cache is an optimization, don't fail the build, e.g. on a full disk
+        }
+        return result;
+    }
+
+    private static String key(File jar) throws IOException {
+        MessageDigest digest;
+        StringBuilder result;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update((jar.getCanonicalPath() + "\n" + jar.length() + "\n" + jar.lastModified()).getBytes(StandardCharsets.UTF_8));
+        result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** @return null if there's no valid index */
+    private static List<CentralDirectory.Entry> read(Path index) {
+        int count;
+        List<CentralDirectory.Entry> result;
+
+        try (DataInputStream src = new DataInputStream(new BufferedInputStream(Files.newInputStream(index), 64 * 1024))) {
+            if (src.readInt() != MAGIC) {
+                return null;
+            }
+            count = src.readInt();
+            result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(new CentralDirectory.Entry(src.readUTF(), src.readUnsignedShort(), src.readUnsignedShort(),
+                        src.readInt(), src.readLong(), src.readLong(), src.readLong(), src.readLong()));
+            }
+            if (src.read() != -1) {
+                return null;
+            }
+            return result;
+        } catch (IOException e) {
+            // not found, truncated, or written by an incompatible version
+            return null;
+        }
+    }
+
+    private void write(Path index, List<CentralDirectory.Entry> entries) throws IOException {
+        Path tmp;
+
+        tmp = Files.createTempFile(dir, index.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream dest = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+                dest.writeInt(MAGIC);
+                dest.writeInt(entries.size());
+                for (CentralDirectory.Entry entry : entries) {
+                    dest.writeUTF(entry.name);
+                    dest.writeShort(entry.flags);
+                    dest.writeShort(entry.method);
+                    dest.writeInt(entry.dosTime);
+                    dest.writeLong(entry.crc);
+                    dest.writeLong(entry.compressedSize);
+                    dest.writeLong(entry.size);
+                    dest.writeLong(entry.localOffset);
+                }
+            }
+            try {
+                Files.move(tmp, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Removes least recently used index files until the cache is below its maximum size. */
+    public void evict() throws IOException {
+        evict(dir, SUFFIX, maxSize);
+    }
+
+    /** Removes least recently modified files with the specified suffix until their total size is below maxSize. */
+    public static void evict(Path dir, String suffix, long maxSize) throws IOException {
+        List<Path> files;
+        List<Long> times;
+        List<Integer> order;
+        long total;
+        long size;
+        Path file;
+
+        files = new ArrayList<>();
+        times = new ArrayList<>();
+        total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + suffix)) {
+            for (Path path : stream) {
+                try {
+                    total += Files.size(path);
+                    times.add(Files.getLastModifiedTime(path).toMillis());
+                    files.add(path);
+                } catch (NoSuchFileException e) {
+                    // evicted by some other process
+                }
+            }
+        }
+        order = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(times::get));
+        for (int i = 0; i < order.size() && total > maxSize; i++) {
+            file = files.get(order.get(i));
+            try {
+                size = Files.size(file);
+                Files.delete(file);
+                total -= size;
+            } catch (NoSuchFileException e) {
+                // evicted by some other process
+            }
+        }
+    }
+
+    public String toString() {
+        return dir + ": " + hits + " hits, " + misses + " misses";
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+/** Minimal helpers to write report files in JSON format. */
+public final class Json {
+    private Json() {
+    }
+
+    /** Appends str as a JSON string literal */
+    public static StringBuilder string(StringBuilder dest, String str) {
+        char c;
+
+        dest.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    dest.append("\\\"");
+                    break;
+                case '\\':
+                    dest.append("\\\\");
+                    break;
+                case '\n':
+                    dest.append("\\n");
+                    break;
+                case '\r':
+                    dest.append("\\r");
+                    break;
+                case '\t':
+                    dest.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        dest.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        dest.append(c);
+                    }
+            }
+        }
+        return dest.append('"');
+    }
+}
@@ -0,0 +1,549 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import net.oneandone.sushi.archive.Archive;
+import net.oneandone.sushi.fs.Node;
+import net.oneandone.sushi.fs.World;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Predicate;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Merges jar files without loading them into memory. Adding a jar only reads its central directory and decides
+ * which entries end up in the result; entry data is read when comparing duplicates and when saving. Thus, memory
+ * usage depends on the number of entries and the largest entry, not on the total size of all jars.
+ *
+ * Entries are copied into the result as they are, without inflating and deflating them. Only entries created by
+ * the merge are compressed: the manifest, concatenated files and merged descriptors.
+ *
+ * With more than one thread, jars are opened and entries are compressed in parallel. Entries are always written
+ * by a single thread in a fixed order, thus the result does not depend on the number of threads.
+ *
+ * Implements the same remove, concat, overwrite and equal semantics as merging via Archive.loadJar. Duplicates are
+ * compared by size and CRC32 checksum as recorded in the central directories; with strict comparison, entries with
+ * equal checksums are also compared byte by byte.
+ */
+public class Merger implements AutoCloseable {
+    private final World world;
+    private final Log log;
+    private final Rules rules;
+    private final byte[] left;
+    private final byte[] right;
+    /** null to run everything in the current thread */
+    private final ExecutorService executor;
+    private final boolean strict;
+
+    public final Manifest manifest;
+    private final Set<String> directories;
+    /** merged so far; the entries provide size and checksum to detect duplicates */
+    private final Map<String, Source> files;
+    /** concat fragments in dependency order */
+    private final Map<String, List<Source>> concats;
+    /** descriptor fragments in dependency order */
+    private final Map<String, List<Source>> descriptors;
+    private final List<CentralDirectory> opened;
+    private final Sources sources;
+    private final List<String> duplicates;
+    /** duplicates with different content */
+    private final Set<String> different;
+
+    public Merger(World world, Log log, int threads, boolean strict, Rules rules) {
+        this.world = world;
+        this.log = log;
+        this.rules = rules;
+        this.left = new byte[world.getBuffer().size()];
+        this.right = new byte[world.getBuffer().size()];
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        this.strict = strict;
+        this.manifest = new Manifest();
+        this.directories = new LinkedHashSet<>();
+        this.files = new LinkedHashMap<>();
+        this.concats = new LinkedHashMap<>();
+        this.descriptors = new LinkedHashMap<>();
+        this.opened = new ArrayList<>();
+        this.sources = new Sources();
+        this.duplicates = new ArrayList<>();
+        this.different = new HashSet<>();
+    }
+
+    public boolean contains(String path) {
+        return files.containsKey(path);
+    }
+
+    public List<CentralDirectory> open(List<File> jars, IndexCache cache) throws IOException {
+        return open(jars, cache, null);
+    }
+
+    /**
+     * Opens the specified jars, in parallel if there's more than one thread. The jars are closed with this merger.
+     *
+     * @param cache null to parse all central directories
+     * @param store null to not share central directories with other executions
+     */
+    public List<CentralDirectory> open(List<File> jars, IndexCache cache, DependencyStore store) throws IOException {
+        List<Future<CentralDirectory>> futures;
+        List<CentralDirectory> result;
+        IOException failed;
+
+        futures = new ArrayList<>();
+        for (File jar : jars) {
+            futures.add(submit(() -> store != null ? store.open(jar, cache) : cache != null ? cache.open(jar) : CentralDirectory.open(jar)));
+        }
+        result = new ArrayList<>();
+        failed = null;
+        for (Future<CentralDirectory> future : futures) {
+            try {
+                result.add(get(future));
+            } catch (IOException e) {
+                if (failed == null) {
+                    failed = e;
+                } else {
+                    failed.addSuppressed(e);
+                }
+            }
+        }
+        opened.addAll(result);
+        if (failed != null) {
+            throw failed;
+        }
+        if (cache != null) {
+            cache.evict();
+            log.debug("index cache " + cache);
+        }
+        return result;
+    }
+
+    public int add(CentralDirectory zip, Artifact artifact) throws IOException {
+        return add(zip, artifact, null);
+    }
+
+    /**
+     * Adds all entries of the specified jar; later jars overwrite or concatenate to the entries of previous ones.
+     *
+     * @param classified rules by entry index, -1 if not classified yet; filled in as entries are classified.
+     *                   null to classify all entries
+     * @return number of duplicates found in this jar
+     */
+    public int add(CentralDirectory zip, Artifact artifact, int[] classified) throws IOException {
+        CentralDirectory.Entry entry;
+        String path;
+        Source src;
+        Source dest;
+        int rule;
+        int before;
+
+        before = duplicates.size();
+        for (int i = 0; i < zip.entries.size(); i++) {
+            entry = zip.entries.get(i);
+            path = path(entry);
+            if (path.isEmpty()) {
+                continue;
+            }
+            if (entry.isEncrypted()) {
+                throw new ZipException(zip + ": encrypted entries are not supported: " + entry.name);
+            }
+            if (entry.method != CentralDirectory.STORED && entry.method != CentralDirectory.DEFLATED) {
+                throw new ZipException(zip + ": unsupported compression method " + entry.method + ": " + entry.name);
+            }
+            if (entry.isDirectory()) {
+                directory(path);
+                continue;
+            }
+            if (path.lastIndexOf('/') > 0) {
+                directory(path.substring(0, path.lastIndexOf('/')));
+            }
+            if (path.equals(Archive.MANIFEST)) {
+                try (InputStream in = zip.open(entry)) {
+                    mergeManifest(new Manifest(in));
+                }
+                continue;
+            }
+            sources.add(path, artifact);
+            src = new Source(zip, entry);
+            if (classified == null) {
+                rule = rules.classify(path);
+            } else {
+                rule = classified[i];
+                if (rule == -1) {
+                    rule = rules.classify(path);
+                    classified[i] = rule;
+                }
+            }
+            if ((rule & Rules.REMOVE) != 0) {
+                log.debug("removing " + path);
+            } else if (rule == 0 && Descriptors.isDescriptor(path)) {
+                // explicit concat, overwrite or equal rules win
+                log.debug("merging " + path);
+                descriptors.computeIfAbsent(path, k -> new ArrayList<>()).add(src);
+            } else if ((rule & Rules.CONCAT) != 0) {
+                log.debug("concatenating " + path);
+                concats.computeIfAbsent(path, k -> new ArrayList<>()).add(src);
+            } else {
+                dest = files.get(path);
+                if (dest == null) {
+                    files.put(path, src);
+                } else if (diff(src, dest)) {
+                    if ((rule & Rules.OVERWRITE) != 0) {
+                        log.debug("overwrite different " + path);
+                        files.put(path, src);
+                    } else {
+                        duplicates.add(path);
+                        different.add(path);
+                    }
+                } else {
+                    if ((rule & Rules.OVERWRITE) != 0) {
+                        log.debug("overwrite equal " + path);
+                    } else if ((rule & Rules.EQUAL) != 0) {
+                        log.debug("equal " + path);
+                    } else {
+                        duplicates.add(path);
+                    }
+                }
+            }
+        }
+        return duplicates.size() - before;
+    }
+
+    /** Same as Archive.loadJar: strip the trailing slash of directories */
+    private static String path(CentralDirectory.Entry entry) {
+        String name;
+
+        name = entry.name;
+        return entry.isDirectory() ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /** Adds the directory and all its parents, parents first */
+    private void directory(String path) {
+        int idx;
+
+        if (directories.contains(path)) {
+            return;
+        }
+        idx = path.lastIndexOf('/');
+        if (idx > 0) {
+            directory(path.substring(0, idx));
+        }
+        directories.add(path);
+    }
+
+    private void mergeManifest(Manifest add) {
+        manifest.getMainAttributes().putAll(add.getMainAttributes());
+        for (Map.Entry<String, Attributes> entry : add.getEntries().entrySet()) {
+            manifest.getEntries().computeIfAbsent(entry.getKey(), k -> new Attributes()).putAll(entry.getValue());
+        }
+    }
+
+    /** @return true if size or checksum differ; if they're equal, compares content only in strict mode */
+    private boolean diff(Source src, Source dest) throws IOException {
+        int leftLength;
+        int rightLength;
+
+        if (src.entry.size != dest.entry.size || src.entry.crc != dest.entry.crc) {
+            return true;
+        }
+        if (!strict) {
+            return false;
+        }
+        try (InputStream l = src.open(); InputStream r = dest.open()) {
+            do {
+                leftLength = l.readNBytes(left, 0, left.length);
+                rightLength = r.readNBytes(right, 0, right.length);
+                if (leftLength != rightLength || !Arrays.equals(left, 0, leftLength, right, 0, rightLength)) {
+                    return true;
+                }
+            } while (leftLength > 0);
+        }
+        return false;
+    }
+
+    /** @return duplicate files detected so far, grouped by the artifacts they come from */
+    public List<Sources.Group> duplicates() {
+        return sources.group(duplicates);
+    }
+
+    /** @return true if the specified duplicate differs in at least one of its jars */
+    public boolean isDifferent(String path) {
+        return different.contains(path);
+    }
+
+    //-- save
+
+    public void save(Node<?> dest) throws IOException {
+        try (OutputStream out = dest.newOutputStream()) {
+            save(out);
+        }
+    }
+
+    /** Writes the merged jar: manifest first, directories next, then the files */
+    public void save(OutputStream dest) throws IOException {
+        save(dest, null, true);
+    }
+
+    /**
+     * Writes part of the merged jar, e.g. a layer of a layered application. Only directories containing written
+     * entries are written.
+     *
+     * @param layer selects the jars to write files from; null for all jars, which also writes empty directories if
+     *              generated is true
+     * @param generated true to write the manifest, concatenated files and merged descriptors
+     */
+    public void save(OutputStream dest, Predicate<CentralDirectory> layer, boolean generated) throws IOException {
+        Future<ZipWriter.Compressed> manifestEntry;
+        List<Future<ZipWriter.Compressed>> generatedEntries;
+        Set<String> used;
+
+        manifestEntry = generated ? submit(this::manifestEntry) : null;
+        generatedEntries = new ArrayList<>();
+        if (generated) {
+            for (Map.Entry<String, List<Source>> entry : concats.entrySet()) {
+                generatedEntries.add(submit(() -> concatEntry(entry.getKey(), entry.getValue())));
+            }
+            for (Map.Entry<String, List<Source>> entry : descriptors.entrySet()) {
+                generatedEntries.add(submit(() -> descriptorEntry(entry.getKey(), entry.getValue())));
+            }
+        }
+        used = null;
+        if (layer != null || !generated) {
+            used = new HashSet<>();
+            for (Map.Entry<String, Source> entry : files.entrySet()) {
+                if (layer == null || layer.test(entry.getValue().zip)) {
+                    parents(entry.getKey(), used);
+                }
+            }
+            if (generated) {
+                for (String path : concats.keySet()) {
+                    parents(path, used);
+                }
+                for (String path : descriptors.keySet()) {
+                    parents(path, used);
+                }
+            }
+        }
+        try (ZipWriter out = new ZipWriter(new BufferedOutputStream(dest, 64 * 1024))) {
+            if (manifestEntry != null) {
+                out.write(get(manifestEntry));
+            }
+            for (String directory : directories) {
+                if (used == null || used.contains(directory)) {
+                    out.directory(directory + "/");
+                }
+            }
+            for (Map.Entry<String, Source> entry : files.entrySet()) {
+                if (layer == null || layer.test(entry.getValue().zip)) {
+                    try (InputStream in = entry.getValue().raw()) {
+                        out.copy(entry.getValue().entry, entry.getKey(), in);
+                    }
+                }
+            }
+            for (Future<ZipWriter.Compressed> future : generatedEntries) {
+                out.write(get(future));
+            }
+        }
+    }
+
+    private static void parents(String path, Set<String> dest) {
+        int idx;
+
+        for (idx = path.lastIndexOf('/'); idx > 0; idx = path.lastIndexOf('/', idx - 1)) {
+            if (!dest.add(path.substring(0, idx))) {
+                break;
+            }
+        }
+    }
+
+    private ZipWriter.Compressed manifestEntry() throws IOException {
+        ByteArrayOutputStream buffer;
+
+        buffer = new ByteArrayOutputStream();
+        manifest.write(buffer);
+        return deflate(Archive.MANIFEST, buffer);
+    }
+
+    private ZipWriter.Compressed concatEntry(String path, List<Source> fragments) throws IOException {
+        ByteArrayOutputStream buffer;
+
+        buffer = new ByteArrayOutputStream();
+        concat(fragments, buffer);
+        log.debug("merged " + path);
+        return deflate(path, buffer);
+    }
+
+    private ZipWriter.Compressed descriptorEntry(String path, List<Source> fragments) throws IOException {
+        ByteArrayOutputStream buffer;
+        Descriptors.Merge merge;
+
+        buffer = new ByteArrayOutputStream();
+        merge = Descriptors.open(path, buffer);
+        for (Source fragment : fragments) {
+            try (InputStream in = fragment.open()) {
+                merge.add(in, fragment.toString());
+            }
+        }
+        merge.finish();
+        log.debug("merged " + path);
+        return deflate(path, buffer);
+    }
+
+    private static ZipWriter.Compressed deflate(String path, ByteArrayOutputStream buffer) {
+        return ZipWriter.Compressed.deflate(path, buffer.toByteArray(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /** Same result as prepending each fragment to the previous ones, with each fragment terminated by a line separator */
+    private void concat(List<Source> fragments, OutputStream dest) throws IOException {
+        byte[] lf;
+        byte[] tail;
+        byte[] buffer;
+        int tailLength;
+        int count;
+
+        lf = world.os.lineSeparator.getSeparator().getBytes(world.getSettings().encoding);
+        tail = new byte[lf.length];
+        buffer = new byte[left.length];
+        for (int i = fragments.size() - 1; i >= 0; i--) {
+            tailLength = 0;
+            try (InputStream in = fragments.get(i).open()) {
+                while ((count = in.read(buffer)) != -1) {
+                    dest.write(buffer, 0, count);
+                    tailLength = tail(tail, tailLength, buffer, count);
+                }
+            }
+            if (tailLength != lf.length || !Arrays.equals(tail, lf)) {
+                dest.write(lf);
+            }
+        }
+    }
+
+    /** Updates tail to hold the last bytes written so far. */
+    private static int tail(byte[] tail, int tailLength, byte[] bytes, int count) {
+        int added;
+        int kept;
+
+        added = Math.min(count, tail.length);
+        kept = Math.min(tailLength, tail.length - added);
+        System.arraycopy(tail, tailLength - kept, tail, 0, kept);
+        System.arraycopy(bytes, count - added, tail, kept, added);
+        return kept + added;
+    }
+
+    //-- threads
+
+    private <T> Future<T> submit(Callable<T> job) {
+        FutureTask<T> task;
+
+        task = new FutureTask<>(job);
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return task;
+    }
+
+    static <T> T get(Future<T> future) throws IOException {
+        Throwable cause;
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        IOException failed;
+
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        failed = null;
+        for (CentralDirectory zip : opened) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                if (failed == null) {
+                    failed = e;
+                } else {
+                    failed.addSuppressed(e);
+                }
+            }
+        }
+        opened.clear();
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    private static class Source {
+        public final CentralDirectory zip;
+        public final CentralDirectory.Entry entry;
+
+        Source(CentralDirectory zip, CentralDirectory.Entry entry) {
+            this.zip = zip;
+            this.entry = entry;
+        }
+
+        public InputStream open() throws IOException {
+            return zip.open(entry);
+        }
+
+        public InputStream raw() throws IOException {
+            return zip.raw(entry);
+        }
+
+        public String toString() {
+            return zip + "!" + entry.name;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records wall time, bytes in and out, entry and duplicate counts and the heap high-water mark of build phases.
+ * Phases may nest and may be started more than once; their times add up. The heap high-water mark is taken from the
+ * peak usage of the heap memory pools, which is reset whenever a phase starts or ends, thus it covers all threads of
+ * the JVM. A disabled instance records nothing and does not touch the memory pools.
+ */
+public class Metrics {
+    public static final long UNKNOWN = -1;
+
+    private final boolean enabled;
+    private final List<Phase> phases;
+    private final List<Phase> running;
+
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+        this.phases = new ArrayList<>();
+        this.running = new ArrayList<>();
+    }
+
+    public Phase start(String name) {
+        return start(name, null);
+    }
+
+    public Phase start(String name, String artifact) {
+        return phase(name, artifact).start();
+    }
+
+    /** @return new phase, not started yet */
+    public Phase phase(String name, String artifact) {
+        Phase result;
+
+        result = new Phase(name, artifact);
+        if (enabled) {
+            phases.add(result);
+        }
+        return result;
+    }
+
+    /** Updates the heap high-water mark of all running phases and resets the peak usage of the heap memory pools */
+    private void sample() {
+        long peak;
+
+        peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+                pool.resetPeakUsage();
+            }
+        }
+        for (Phase phase : running) {
+            phase.heap = Math.max(phase.heap, peak);
+        }
+    }
+
+    //--
+
+    public String toJson(String name) {
+        StringBuilder builder;
+        Phase phase;
+
+        builder = new StringBuilder();
+        builder.append("{\n  \"name\": ");
+        Json.string(builder, name);
+        builder.append(",\n  \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            phase = phases.get(i);
+            builder.append(i == 0 ? "\n" : ",\n");
+            builder.append("    { \"phase\": ");
+            Json.string(builder, phase.name);
+            if (phase.artifact != null) {
+                builder.append(", \"artifact\": ");
+                Json.string(builder, phase.artifact);
+            }
+            field(builder, "millis", phase.nanos / 1000000);
+            field(builder, "bytesIn", phase.bytesIn);
+            field(builder, "bytesOut", phase.bytesOut);
+            field(builder, "entries", phase.entries);
+            field(builder, "duplicates", phase.duplicates);
+            field(builder, "heapPeak", phase.heap);
+            builder.append(" }");
+        }
+        builder.append(phases.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return builder.toString();
+    }
+
+    private static void field(StringBuilder builder, String name, long value) {
+        if (value != UNKNOWN) {
+            builder.append(", \"").append(name).append("\": ").append(value);
+        }
+    }
+
+    /** @return table lines with phases of the same name summed up, in the order they were first started */
+    public List<String> summary() {
+        Map<String, Phase> sums;
+        Phase sum;
+        List<String> result;
+
+        sums = new LinkedHashMap<>();
+        for (Phase phase : phases) {
+            sum = sums.computeIfAbsent(phase.name, k -> new Phase(k, null));
+            sum.runs++;
+            sum.nanos += phase.nanos;
+            sum.bytesIn = add(sum.bytesIn, phase.bytesIn);
+            sum.bytesOut = add(sum.bytesOut, phase.bytesOut);
+            sum.entries = add(sum.entries, phase.entries);
+            sum.duplicates = add(sum.duplicates, phase.duplicates);
+            sum.heap = Math.max(sum.heap, phase.heap);
+        }
+        result = new ArrayList<>();
+        result.add(String.format("%-14s %5s %9s %10s %10s %8s %6s %8s",
+                "phase", "count", "ms", "kb in", "kb out", "entries", "dups", "heap mb"));
+        for (Phase phase : sums.values()) {
+            result.add(String.format("%-14s %5d %9d %10s %10s %8s %6s %8s", phase.name, phase.runs, phase.nanos / 1000000,
+                    cell(phase.bytesIn, 1024), cell(phase.bytesOut, 1024), cell(phase.entries, 1), cell(phase.duplicates, 1),
+                    cell(phase.heap, 1024 * 1024)));
+        }
+        return result;
+    }
+
+    private static long add(long left, long right) {
+        if (left == UNKNOWN) {
+            return right;
+        }
+        return right == UNKNOWN ? left : left + right;
+    }
+
+    private static String cell(long value, long unit) {
+        return value == UNKNOWN ? "-" : Long.toString((value + unit / 2) / unit);
+    }
+
+    /** Closing a phase stops it, thus phases can be timed with try-with-resources. */
+    public class Phase implements AutoCloseable {
+        public final String name;
+        /** null if not specific to an artifact */
+        public final String artifact;
+        public long bytesIn;
+        public long bytesOut;
+        public long entries;
+        public long duplicates;
+        private long nanos;
+        private long heap;
+        private int runs;
+        private long started;
+
+        private Phase(String name, String artifact) {
+            this.name = name;
+            this.artifact = artifact;
+            this.bytesIn = UNKNOWN;
+            this.bytesOut = UNKNOWN;
+            this.entries = UNKNOWN;
+            this.duplicates = UNKNOWN;
+            this.nanos = 0;
+            this.heap = UNKNOWN;
+            this.runs = 0;
+            this.started = 0;
+        }
+
+        public Phase start() {
+            if (enabled) {
+                sample();
+                running.add(this);
+            }
+            started = System.nanoTime();
+            return this;
+        }
+
+        public void close() {
+            nanos += System.nanoTime() - started;
+            if (enabled) {
+                sample();
+                running.remove(this);
+            }
+        }
+
+        /** Adds to the entry count */
+        public void entries(long count) {
+            entries = add(entries, count);
+        }
+
+        /** Adds to the duplicate count */
+        public void duplicates(long count) {
+            duplicates = add(duplicates, count);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Adds META-INF/INDEX.LIST and META-INF/PACKAGES.LIST to a jar file. INDEX.LIST is a jar index as created by "jar -i",
+ * listing the packages and top-level files of the jar. PACKAGES.LIST maps each package to its entries, one line per
+ * package: the package name ("/" for the default package) followed by the entry names relative to the package,
+ * separated by spaces. Entries in multi-release directories count for the package they define; they're listed as
+ * version/name, e.g. "11/Foo.class" for META-INF/versions/11/pkg/Foo.class. Other META-INF entries are not indexed.
+ * Existing index files, e.g. copied from a dependency, are replaced.
+ */
+public final class PackageIndex {
+    public static final String INDEX_LIST = "META-INF/INDEX.LIST";
+    public static final String PACKAGES_LIST = "META-INF/PACKAGES.LIST";
+    private static final String VERSIONS = "META-INF/versions/";
+
+    private PackageIndex() {
+    }
+
+    /**
+     * @param jarName name of the jar as referenced by class paths
+     * @return number of packages
+     */
+    public static int apply(File file, String jarName) throws IOException {
+        int[] count;
+
+        count = new int[1];
+        ZipWriter.rewrite(file, (zip, writer) -> {
+            Map<String, List<String>> packages;
+            List<CentralDirectory.Entry> rest;
+            boolean indexed;
+
+            packages = packages(zip.entries);
+            count[0] = packages.size();
+            rest = new ArrayList<>();
+            indexed = false;
+            for (CentralDirectory.Entry e : zip.entries) {
+                if (e.name.equals(INDEX_LIST) || e.name.equals(PACKAGES_LIST)) {
+                    continue;
+                }
+                if (!indexed && !e.name.equals("META-INF/") && !e.name.equals("META-INF/MANIFEST.MF")) {
+                    // right after the manifest, like jar -i
+                    write(writer, jarName, packages);
+                    indexed = true;
+                }
+                try (InputStream raw = zip.raw(e)) {
+                    writer.copy(e, e.name, raw);
+                }
+            }
+            if (!indexed) {
+                write(writer, jarName, packages);
+            }
+        });
+        return count[0];
+    }
+
+    private static void write(ZipWriter dest, String jarName, Map<String, List<String>> packages) throws IOException {
+        dest.write(ZipWriter.Compressed.deflate(INDEX_LIST, indexList(jarName, packages), Deflater.DEFAULT_COMPRESSION));
+        dest.write(ZipWriter.Compressed.deflate(PACKAGES_LIST, packagesList(packages), Deflater.DEFAULT_COMPRESSION));
+    }
+
+    /** @return entry names relative to their package, by package; sorted */
+    private static Map<String, List<String>> packages(List<CentralDirectory.Entry> entries) {
+        Map<String, List<String>> result;
+        String name;
+        String version;
+        int idx;
+
+        result = new TreeMap<>();
+        for (CentralDirectory.Entry entry : entries) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            name = entry.name;
+            version = null;
+            if (name.startsWith(VERSIONS)) {
+                idx = name.indexOf('/', VERSIONS.length());
+                if (idx == -1) {
+                    continue;
+                }
+                version = name.substring(VERSIONS.length(), idx);
+                name = name.substring(idx + 1);
+            }
+            if (name.startsWith("META-INF/")) {
+                continue;
+            }
+            idx = name.lastIndexOf('/');
+            result.computeIfAbsent(idx == -1 ? "/" : name.substring(0, idx), k -> new ArrayList<>())
+                    .add(version == null ? name.substring(idx + 1) : version + "/" + name.substring(idx + 1));
+        }
+        for (List<String> names : result.values()) {
+            names.sort(null);
+        }
+        return result;
+    }
+
+    private static byte[] indexList(String jarName, Map<String, List<String>> packages) {
+        StringBuilder builder;
+
+        builder = new StringBuilder("JarIndex-Version: 1.0\n\n").append(jarName).append('\n');
+        for (Map.Entry<String, List<String>> entry : packages.entrySet()) {
+            if (entry.getKey().equals("/")) {
+                for (String name : entry.getValue()) {
+                    if (name.indexOf('/') == -1) {
+                        builder.append(name).append('\n');
+                    }
+                }
+            } else {
+                builder.append(entry.getKey()).append('\n');
+            }
+        }
+        return builder.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] packagesList(Map<String, List<String>> packages) {
+        StringBuilder builder;
+
+        builder = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : packages.entrySet()) {
+            builder.append(entry.getKey());
+            for (String name : entry.getValue()) {
+                builder.append(' ').append(name);
+            }
+            builder.append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
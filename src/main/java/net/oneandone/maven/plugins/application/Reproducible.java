@@ -0,0 +1,105 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes a zip file reproducible: all entries get the same time, entries are sorted by name, with the manifest and index
+ * files in front. Entries are copied without re-compressing them; ZipWriter writes the same headers for the same entries.
+ * Data prepended to the zip file (i.e. the launch script) is kept.
+ */
+public final class Reproducible {
+    private Reproducible() {
+    }
+
+    /**
+     * Parses project.build.outputTimestamp like the Maven archiver does: seconds since the epoch or an ISO 8601 date with
+     * offset.
+     *
+     * @return null if not specified, i.e. output is not reproducible
+     */
+    public static Instant parse(String outputTimestamp) {
+        if (outputTimestamp == null || outputTimestamp.length() < 2) {
+            // a single character disables reproducible output, e.g. to override a parent pom
+            return null;
+        }
+        if (outputTimestamp.chars().allMatch(Character::isDigit)) {
+            return Instant.ofEpochSecond(Long.parseLong(outputTimestamp));
+        }
+        try {
+            return OffsetDateTime.parse(outputTimestamp, DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid outputTimestamp: " + outputTimestamp, e);
+        }
+    }
+
+    /** @return time in MS-DOS format, in UTC to get the same value on all machines */
+    public static int dosTime(Instant timestamp) {
+        return ZipWriter.dosTime(LocalDateTime.ofInstant(timestamp, ZoneOffset.UTC));
+    }
+
+    /** @param sort false to keep the order of the entries, e.g. when they are ordered by class loading */
+    public static void apply(File file, Instant timestamp, boolean sort) throws IOException {
+        int time;
+
+        time = dosTime(timestamp);
+        ZipWriter.rewrite(file, (zip, writer) -> {
+            Map<String, CentralDirectory.Entry> remaining;
+            List<CentralDirectory.Entry> order;
+            List<CentralDirectory.Entry> sorted;
+            CentralDirectory.Entry entry;
+
+            if (sort) {
+                remaining = new LinkedHashMap<>();
+                for (CentralDirectory.Entry e : zip.entries) {
+                    remaining.put(e.name, e);
+                }
+                order = new ArrayList<>(zip.entries.size());
+                for (String name : EntryOrder.HEAD) {
+                    entry = remaining.remove(name);
+                    if (entry != null) {
+                        order.add(entry);
+                    }
+                }
+                sorted = new ArrayList<>(remaining.values());
+                sorted.sort(Comparator.comparing(e -> e.name));
+                order.addAll(sorted);
+            } else {
+                order = zip.entries;
+            }
+            for (CentralDirectory.Entry e : order) {
+                try (InputStream raw = zip.raw(e)) {
+                    writer.copy(new CentralDirectory.Entry(e.name, e.flags, e.method, time, e.crc, e.compressedSize, e.size,
+                            e.localOffset), e.name, raw);
+                }
+            }
+        });
+    }
+}
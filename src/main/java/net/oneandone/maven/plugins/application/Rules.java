@@ -0,0 +1,185 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import net.oneandone.sushi.fs.filter.Glob;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The remove, concat, overwrite and equal patterns, compiled into a single matcher. Patterns are split into path
+ * segments and merged into a tree; classifying a path walks the tree once for all patterns, segment by segment.
+ * Segments are compiled with sushi's Glob; a pattern matches a path if Node.find would find it, i.e. the whole path
+ * has to match (in contrast to Filter.matches, which also matches paths below a matching directory).
+ */
+public class Rules {
+    public static final int REMOVE = 1;
+    public static final int CONCAT = 2;
+    public static final int OVERWRITE = 4;
+    public static final int EQUAL = 8;
+
+    public static Rules compile(List<String> remove, List<String> concat, List<String> overwrite, List<String> equal) {
+        Rules result;
+
+        result = new Rules();
+        result.addAll(remove, REMOVE);
+        result.addAll(concat, CONCAT);
+        result.addAll(overwrite, OVERWRITE);
+        result.addAll(equal, EQUAL);
+        return result;
+    }
+
+    private final State root;
+
+    public Rules() {
+        this.root = new State(false);
+    }
+
+    public void addAll(List<String> patterns, int rule) {
+        for (String pattern : patterns) {
+            add(pattern, rule);
+        }
+    }
+
+    public void add(String pattern, int rule) {
+        String[] segments;
+        State state;
+        Object compiled;
+
+        segments = pattern.split("/");
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].equals("**") && (i == segments.length - 1 || segments[i + 1].equals("**"))) {
+                // same as Node.find
+                throw new IllegalArgumentException("** must be followed by some content: " + pattern);
+            }
+        }
+        state = root;
+        for (String segment : segments) {
+            compiled = Glob.compile(segment, false);
+            if (compiled == Glob.STARSTAR) {
+                if (state.starStar == null) {
+                    state.starStar = new State(true);
+                }
+                state = state.starStar;
+            } else if (compiled instanceof String) {
+                state = state.literals.computeIfAbsent((String) compiled, k -> new State(false));
+            } else {
+                state = state.pattern((Pattern) compiled);
+            }
+        }
+        state.rules |= rule;
+    }
+
+    /** @return all rules matching path, or'ed together */
+    public int classify(String path) {
+        List<State> current;
+        List<State> next;
+        List<State> tmp;
+        int start;
+        int end;
+        String segment;
+        State literal;
+        int result;
+
+        current = new ArrayList<>();
+        next = new ArrayList<>();
+        root.enter(current);
+        start = 0;
+        while (true) {
+            end = path.indexOf('/', start);
+            segment = end == -1 ? path.substring(start) : path.substring(start, end);
+            next.clear();
+            for (State state : current) {
+                if (state.isStarStar) {
+                    state.enter(next);
+                }
+                literal = state.literals.get(segment);
+                if (literal != null) {
+                    literal.enter(next);
+                }
+                for (int i = 0; i < state.patterns.size(); i++) {
+                    if (Glob.matches(state.patterns.get(i), segment)) {
+                        state.patternStates.get(i).enter(next);
+                    }
+                }
+            }
+            tmp = current;
+            current = next;
+            next = tmp;
+            if (end == -1 || current.isEmpty()) {
+                break;
+            }
+            start = end + 1;
+        }
+        result = 0;
+        if (end == -1) {
+            for (State state : current) {
+                result |= state.rules;
+            }
+        }
+        return result;
+    }
+
+    public boolean matches(String path, int rule) {
+        return (classify(path) & rule) != 0;
+    }
+
+    private static class State {
+        public final boolean isStarStar;
+        public final Map<String, State> literals;
+        public final List<Pattern> patterns;
+        public final List<State> patternStates;
+        public State starStar;
+        public int rules;
+
+        State(boolean isStarStar) {
+            this.isStarStar = isStarStar;
+            this.literals = new HashMap<>();
+            this.patterns = new ArrayList<>();
+            this.patternStates = new ArrayList<>();
+            this.starStar = null;
+            this.rules = 0;
+        }
+
+        public State pattern(Pattern pattern) {
+            State result;
+
+            for (int i = 0; i < patterns.size(); i++) {
+                if (patterns.get(i).pattern().equals(pattern.pattern())) {
+                    return patternStates.get(i);
+                }
+            }
+            result = new State(false);
+            patterns.add(pattern);
+            patternStates.add(result);
+            return result;
+        }
+
+        /** Adds this state to dest; also adds states reachable by matching ** against zero segments */
+        public void enter(List<State> dest) {
+            if (!dest.contains(this)) {
+                dest.add(this);
+                if (starStar != null) {
+                    starStar.enter(dest);
+                }
+            }
+        }
+    }
+}
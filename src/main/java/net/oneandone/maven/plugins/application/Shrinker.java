@@ -0,0 +1,302 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import net.oneandone.sushi.archive.Archive;
+import org.apache.maven.plugin.logging.Log;
+import proguard.ClassPath;
+import proguard.Configuration;
+import proguard.ConfigurationParser;
+import proguard.ConfigurationWriter;
+import proguard.ParseException;
+import proguard.ProGuard;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs ProGuard in a separate JVM, thus concurrent executions, e.g. in a parallel reactor build, neither block each other
+ * nor redirect System.out and System.err of the Maven process. Relative paths in the options are resolved against the
+ * working directory, and the properties are passed to the separate JVM, thus the options behave like in-process.
+ * Results are cached by a hash of the input entries, the configuration with includes expanded, the content of all
+ * files it reads, ProGuard and the library jars; a hit skips ProGuard. Options that write files, e.g. -printmapping,
+ * bypass the cache because a hit would not write them. The manifest is not part of the hash because it contains the
+ * build date; a hit gets the manifest of the current input. Like IndexCache, cache files are written to a temp file
+ * and renamed, and the least recently used files are evicted.
+ */
+public class Shrinker {
+    private static final String SUFFIX = ".jar";
+
+    private final Log log;
+    private final String java;
+    private final File library;
+    private final File working;
+    /** passed to ProGuard as system properties, e.g. the user properties of the Maven session */
+    private final Properties properties;
+    /** null for no cache */
+    private final Path cache;
+    private final long cacheSize;
+
+    public Shrinker(Log log, String java, File library, File working, Properties properties, File cache, long cacheSize)
+            throws IOException {
+        this.log = log;
+        this.java = java;
+        this.library = library;
+        this.working = working;
+        this.properties = properties;
+        this.cache = cache == null ? null : cache.toPath();
+        this.cacheSize = cacheSize;
+        if (this.cache != null) {
+            Files.createDirectories(this.cache);
+        }
+    }
+
+    /** Parses the options like ProGuard does when running, i.e. relative to the working directory and with system properties */
+    public Configuration parse(String options) throws ParseException, IOException {
+        Properties all;
+        Configuration result;
+        ConfigurationParser parser;
+
+        all = new Properties();
+        all.putAll(System.getProperties());
+        all.putAll(properties);
+        result = new Configuration();
+        parser = new ConfigurationParser(options, "shrink options", working, all);
+        try {
+            parser.parse(result);
+        } finally {
+            parser.close();
+        }
+        return result;
+    }
+
+    /**
+     * @param options ProGuard options without in- and output jars
+     * @return true if the result was taken from the cache
+     */
+    public boolean run(File in, File out, String options, File proguardLog) throws IOException {
+        String key;
+        Path cached;
+
+        cached = null;
+        if (cache != null) {
+            key = key(in, options);
+            cached = key == null ? null : cache.resolve(key + SUFFIX);
+            if (cached != null && Files.exists(cached)) {
+                try {
+                    restore(cached.toFile(), in, out);
+                    Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+                    return true;
+                } catch (IOException e) {
+                    // evicted by some other process in the meantime, or truncated; fall back to ProGuard
+                }
+            }
+        }
+        proguard(in, out, options, proguardLog);
+        if (cached != null) {
+            try {
+                store(out, cached);
+                IndexCache.evict(cache, SUFFIX, cacheSize);
+            } catch (IOException e) {
+                // the cache is an optimization, don't fail the build, e.g. on a full disk
+            }
+        }
+        return false;
+    }
+
+    /** @return null if the result cannot be cached */
+    private String key(File in, String options) throws IOException {
+        Configuration configuration;
+        StringWriter expanded;
+        ConfigurationWriter writer;
+        Fingerprint result;
+
+        try {
+            configuration = parse(options);
+        } catch (ParseException e) {
+            throw new IOException("invalid shrink options: " + e.getMessage(), e);
+        }
+        if (configuration.printSeeds != null || configuration.printUsage != null || configuration.printMapping != null
+                || configuration.printConfiguration != null || configuration.dump != null
+                || (configuration.programJars != null && configuration.programJars.hasOutput())) {
+            log.info("shrink cache not used: shrink options write files");
+            return null;
+        }
+        result = new Fingerprint();
+        result.addFile("proguard", proguardJar(), false);
+        result.addFile("library", library, false);
+        result.add("java", java);
+        result.add("options", options);
+        expanded = new StringWriter();
+        writer = new ConfigurationWriter(new PrintWriter(expanded));
+        writer.write(configuration);
+        writer.close();
+        result.add("configuration", expanded);
+        if (!addFile(result, configuration.applyMapping)
+                || !addUrl(result, configuration.obfuscationDictionary)
+                || !addUrl(result, configuration.classObfuscationDictionary)
+                || !addUrl(result, configuration.packageObfuscationDictionary)
+                || !addClassPath(result, configuration.programJars)
+                || !addClassPath(result, configuration.libraryJars)) {
+            log.info("shrink cache not used: shrink options read directories or non-local files");
+            return null;
+        }
+        for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+            result.add("property", entry.getKey() + "=" + entry.getValue());
+        }
+        try (CentralDirectory zip = CentralDirectory.open(in)) {
+            for (CentralDirectory.Entry entry : zip.entries) {
+                if (!entry.name.equals(Archive.MANIFEST)) {
+                    result.add("entry", entry.name + " " + entry.size + " " + entry.crc);
+                }
+            }
+        }
+        return result.sha256();
+    }
+
+    /** @return false if the file cannot be hashed */
+    private static boolean addFile(Fingerprint dest, File file) throws IOException {
+        return file == null || dest.addFile("read", file, true);
+    }
+
+    private static boolean addUrl(Fingerprint dest, URL url) throws IOException {
+        if (url == null) {
+            return true;
+        }
+        if (!"file".equals(url.getProtocol())) {
+            return false;
+        }
+        try {
+            return addFile(dest, new File(url.toURI()));
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    private static boolean addClassPath(Fingerprint dest, ClassPath classPath) throws IOException {
+        if (classPath != null) {
+            for (int i = 0; i < classPath.size(); i++) {
+                if (!addFile(dest, classPath.get(i).getFile())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void proguard(File in, File out, String options, File proguardLog) throws IOException {
+        File config;
+        List<String> command;
+        Process process;
+        int exitCode;
+
+        config = new File(in.getParentFile(), "proguard.pro");
+        // the config file is in a temp directory; without a base directory, ProGuard would resolve relative paths against it
+        Files.write(config.toPath(), ("-basedirectory " + quote(working) + "\n-injars " + quote(in) + "\n-outjars " + quote(out)
+                + "\n-libraryjars " + quote(library) + "\n" + options + "\n").getBytes(StandardCharsets.UTF_8));
+        command = new ArrayList<>();
+        command.add(java);
+        for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+            command.add("-D" + entry.getKey() + "=" + entry.getValue());
+        }
+        command.add("-cp");
+        command.add(proguardJar().getPath());
+        command.add(ProGuard.class.getName());
+        command.add("@" + config.getPath());
+        process = new ProcessBuilder(command).directory(working).redirectErrorStream(true).redirectOutput(proguardLog).start();
+        process.getOutputStream().close();
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("shrink interrupted");
+        }
+        if (exitCode != 0 || !out.isFile()) {
+            throw new IOException("shrink failed with exit code " + exitCode + ", see " + proguardLog + " for details");
+        }
+    }
+
+    private static String quote(File file) {
+        return "'" + file.getAbsolutePath() + "'";
+    }
+
+    private static File proguardJar() throws IOException {
+        try {
+            return new File(ProGuard.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Copies the cached jar to out, with the manifest of in */
+    private static void restore(File cached, File in, File out) throws IOException {
+        CentralDirectory.Entry manifest;
+
+        try (CentralDirectory src = CentralDirectory.open(cached); CentralDirectory current = CentralDirectory.open(in);
+             ZipWriter dest = new ZipWriter(new BufferedOutputStream(Files.newOutputStream(out.toPath()), 64 * 1024))) {
+            manifest = null;
+            for (CentralDirectory.Entry entry : current.entries) {
+                if (entry.name.equals(Archive.MANIFEST)) {
+                    manifest = entry;
+                }
+            }
+            for (CentralDirectory.Entry entry : src.entries) {
+                if (manifest != null && entry.name.equals(Archive.MANIFEST)) {
+                    try (InputStream raw = current.raw(manifest)) {
+                        dest.copy(manifest, manifest.name, raw);
+                    }
+                } else {
+                    try (InputStream raw = src.raw(entry)) {
+                        dest.copy(entry, entry.name, raw);
+                    }
+                }
+            }
+        }
+    }
+
+    private void store(File out, Path cached) throws IOException {
+        Path tmp;
+
+        tmp = Files.createTempFile(cache, cached.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(out.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
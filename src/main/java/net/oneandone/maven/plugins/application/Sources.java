@@ -15,84 +15,199 @@
  */
 package net.oneandone.maven.plugins.application;
 
-import net.oneandone.sushi.fs.Node;
 import org.apache.maven.artifact.Artifact;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * Remembers the artifacts each path comes from, to report duplicates. Paths are stored as a tree of path segments,
+ * thus common directories are stored only once; artifacts are stored as indexes into the list of known artifacts.
+ */
 public class Sources {
-    private Map<String, List<Artifact>> map;
+    private final Segment root;
+    private final List<Artifact> artifacts;
+    private final Map<Artifact, Integer> indexes;
+    private Artifact lastArtifact;
+    private int lastIndex;
 
     public Sources() {
-        this.map = new HashMap<>();
+        this.root = new Segment();
+        this.artifacts = new ArrayList<>();
+        this.indexes = new HashMap<>();
+        this.lastArtifact = null;
+        this.lastIndex = -1;
     }
 
     public void add(String path, Artifact source) {
-        List<Artifact> lst;
+        Segment segment;
+        int start;
+        int end;
 
-        lst = map.get(path);
-        if (lst == null) {
-            lst = new ArrayList<>();
-            map.put(path, lst);
+        if (source != lastArtifact) {
+            lastArtifact = source;
+            lastIndex = indexes.computeIfAbsent(source, k -> {
+                artifacts.add(k);
+                return artifacts.size() - 1;
+            });
         }
-        lst.add(source);
+        segment = root;
+        start = 0;
+        do {
+            end = path.indexOf('/', start);
+            segment = segment.child(end == -1 ? path.substring(start) : path.substring(start, end));
+            start = end + 1;
+        } while (end != -1);
+        segment.add(lastIndex);
+    }
+
+    public List<Artifact> get(String path) {
+        Segment segment;
+
+        segment = lookup(path);
+        return segment == null || segment.count == 0 ? null : artifacts(segment);
     }
 
-    public void addAll(Node<?> root, Artifact source) throws IOException {
-        for (Node node : root.find("**/*")) {
-            add(node.getRelative(root), source);
+    /** @return the specified paths grouped by the artifacts they come from, in the order of the paths */
+    public List<Group> group(Collection<String> paths) {
+        Set<Segment> done;
+        Map<Key, Group> groups;
+        Segment segment;
+        Key key;
+        Group group;
+
+        done = new HashSet<>();
+        groups = new LinkedHashMap<>();
+        for (String path : paths) {
+            segment = lookup(path);
+            if (segment == null || !done.add(segment)) {
+                continue;
+            }
+            key = new Key(Arrays.copyOf(segment.artifacts, segment.count));
+            group = groups.get(key);
+            if (group == null) {
+                group = new Group(artifacts(segment));
+                groups.put(key, group);
+            }
+            group.paths.add(path);
         }
+        return new ArrayList<>(groups.values());
     }
 
-    public List<Artifact> get(String path) {
-        return map.get(path);
+    private Segment lookup(String path) {
+        Segment segment;
+        int start;
+        int end;
+
+        segment = root;
+        start = 0;
+        do {
+            end = path.indexOf('/', start);
+            segment = segment.get(end == -1 ? path.substring(start) : path.substring(start, end));
+            start = end + 1;
+        } while (segment != null && end != -1);
+        return segment;
+    }
+
+    private List<Artifact> artifacts(Segment segment) {
+        List<Artifact> result;
+
+        result = new ArrayList<>(segment.count);
+        for (int i = 0; i < segment.count; i++) {
+            result.add(artifacts.get(segment.artifacts[i]));
+        }
+        return result;
     }
 
-    public void retain(List<String> paths) {
-        Iterator<Map.Entry<String, List<Artifact>>> iter;
-        Map.Entry<String, List<Artifact>> entry;
+    //--
+
+    /** Paths contained in the same artifacts */
+    public static class Group {
+        public final List<Artifact> artifacts;
+        public final List<String> paths;
+
+        public Group(List<Artifact> artifacts) {
+            this.artifacts = artifacts;
+            this.paths = new ArrayList<>();
+        }
+
+        public String toString() {
+            StringBuilder builder;
 
-        iter = map.entrySet().iterator();
-        while (iter.hasNext()) {
-            entry = iter.next();
-            if (!paths.contains(entry.getKey())) {
-                iter.remove();
+            builder = new StringBuilder();
+            builder.append("  ").append(artifacts.toString()).append(":\n");
+            for (String path : paths) {
+                builder.append("    ").append(path).append('\n');
             }
+            return builder.toString();
         }
     }
 
-    public String toString() {
-        StringBuilder builder;
-        Iterator<Map.Entry<String, List<Artifact>>> iter;
-        Iterator<Map.Entry<String, List<Artifact>>> sub;
-        Map.Entry<String, List<Artifact>> entry;
-        List<Artifact> sources;
-
-        builder = new StringBuilder();
-        while (true) {
-            iter = map.entrySet().iterator();
-            if (!iter.hasNext()) {
-                break;
+    private static class Segment {
+        private static final int[] EMPTY = new int[0];
+
+        /** null until the first child is added */
+        private Map<String, Segment> children;
+        /** indexes of the artifacts containing this path */
+        public int[] artifacts;
+        public int count;
+
+        Segment() {
+            this.children = null;
+            this.artifacts = EMPTY;
+            this.count = 0;
+        }
+
+        public Segment get(String childName) {
+            return children == null ? null : children.get(childName);
+        }
+
+        public Segment child(String childName) {
+            Segment result;
+
+            if (children == null) {
+                children = new HashMap<>(4);
             }
-            entry = iter.next();
-            sources = entry.getValue();
-            builder.append("  ").append(sources.toString()).append(":\n");
-            builder.append("    ").append(entry.getKey()).append('\n');
-            iter.remove();
-            sub = map.entrySet().iterator();
-            while (sub.hasNext()) {
-                entry = sub.next();
-                if (sources.equals(entry.getValue())) {
-                    builder.append("    ").append(entry.getKey()).append('\n');
-                    sub.remove();
-                }
+            result = children.get(childName);
+            if (result == null) {
+                result = new Segment();
+                children.put(childName, result);
+            }
+            return result;
+        }
+
+        public void add(int artifact) {
+            if (count == artifacts.length) {
+                artifacts = Arrays.copyOf(artifacts, Math.max(2, count * 2));
             }
+            artifacts[count++] = artifact;
+        }
+    }
+
+    private static class Key {
+        private final int[] artifacts;
+        private final int hash;
+
+        Key(int[] artifacts) {
+            this.artifacts = artifacts;
+            this.hash = Arrays.hashCode(artifacts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(artifacts, ((Key) obj).artifacts);
         }
-        return builder.toString();
     }
 }
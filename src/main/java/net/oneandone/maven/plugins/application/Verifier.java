@@ -0,0 +1,327 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Checks an application file without loading any of its classes: the main class file is parsed right from the jar.
+ * Class references are resolved against the entries of the jar and the JDK running the build. For layered applications,
+ * the jars of further layers are searched after the application file.
+ */
+public class Verifier implements AutoCloseable {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_PUBLIC_STATIC = 0x0009;
+    private static final String MAIN_DESCRIPTOR = "([Ljava/lang/String;)V";
+
+    private final CentralDirectory zip;
+    private final List<CentralDirectory> layers;
+    private final Map<String, CentralDirectory.Entry> entries;
+    /** jar of each entry */
+    private final Map<CentralDirectory.Entry, CentralDirectory> owners;
+
+    public Verifier(File file, File... layerFiles) throws IOException {
+        this.zip = CentralDirectory.open(file);
+        this.layers = new ArrayList<>();
+        this.entries = new HashMap<>();
+        this.owners = new HashMap<>();
+        add(zip);
+        try {
+            for (File layer : layerFiles) {
+                layers.add(CentralDirectory.open(layer));
+                add(layers.get(layers.size() - 1));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Entries of previous jars take precedence, like on a classpath */
+    private void add(CentralDirectory jar) {
+        for (CentralDirectory.Entry entry : jar.entries) {
+            if (entries.putIfAbsent(entry.name, entry) == null) {
+                owners.put(entry, jar);
+            }
+        }
+    }
+
+    /** @return null if the jar does not contain the class */
+    public ClassInfo read(String className) throws IOException {
+        CentralDirectory.Entry entry;
+
+        entry = entries.get(className.replace('.', '/') + ".class");
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream src = owners.get(entry).open(entry)) {
+            return ClassInfo.parse(new DataInputStream(src), entry.name);
+        }
+    }
+
+    /**
+     * Checks that the classes referenced by the constant pool of the specified class and all service providers declared
+     * in META-INF/services can be resolved. Service files are checked in parallel if there's more than one thread.
+     *
+     * @return unresolved references, prefixed with the class or service file referring to them
+     */
+    public List<String> unresolved(ClassInfo clazz, int threads) throws IOException {
+        ExecutorService executor;
+        List<Future<List<String>>> futures;
+        List<String> result;
+
+        executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            futures = new ArrayList<>();
+            futures.add(submit(executor, () -> unresolved(clazz.path, clazz.references)));
+            for (CentralDirectory.Entry entry : zip.entries) {
+                if (entry.name.startsWith(Descriptors.SERVICES) && !entry.isDirectory()
+                        && entry.name.indexOf('/', Descriptors.SERVICES.length()) == -1) {
+                    futures.add(submit(executor, () -> unresolved(entry.name, providers(entry))));
+                }
+            }
+            result = new ArrayList<>();
+            for (Future<List<String>> future : futures) {
+                result.addAll(Merger.get(future));
+            }
+            return result;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /** @param executor null to run in the current thread */
+    private static <T> Future<T> submit(ExecutorService executor, Callable<T> job) {
+        FutureTask<T> task;
+
+        task = new FutureTask<>(job);
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return task;
+    }
+
+    private List<String> unresolved(String source, Set<String> classNames) {
+        List<String> result;
+
+        result = new ArrayList<>();
+        for (String name : classNames) {
+            if (!resolves(name)) {
+                result.add(source + ": " + name.replace('/', '.'));
+            }
+        }
+        return result;
+    }
+
+    /** @param name class name with slashes */
+    private boolean resolves(String name) {
+        String path;
+
+        path = name + ".class";
+        return entries.containsKey(path) || ClassLoader.getPlatformClassLoader().getResource(path) != null;
+    }
+
+    /** @return provider class names with slashes */
+    private Set<String> providers(CentralDirectory.Entry entry) throws IOException {
+        Set<String> result;
+        int idx;
+
+        result = new LinkedHashSet<>();
+        try (BufferedReader src = new BufferedReader(new InputStreamReader(zip.open(entry), StandardCharsets.UTF_8))) {
+            for (String line = src.readLine(); line != null; line = src.readLine()) {
+                idx = line.indexOf('#');
+                if (idx != -1) {
+                    line = line.substring(0, idx);
+                }
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    result.add(line.replace('.', '/'));
+                }
+            }
+        }
+        return result;
+    }
+
+    public void close() throws IOException {
+        for (CentralDirectory layer : layers) {
+            layer.close();
+        }
+        zip.close();
+    }
+
+    //--
+
+    /** What verification needs to know about a class file */
+    public static class ClassInfo {
+        /** Parses the class file up to the methods */
+        public static ClassInfo parse(DataInputStream src, String path) throws IOException {
+            int count;
+            int tag;
+            String[] utf8;
+            int[] classes;
+            int thisClass;
+            boolean main;
+            Set<String> references;
+
+            if (src.readInt() != MAGIC) {
+                throw new IOException(path + ": not a class file");
+            }
+            src.readUnsignedShort(); // minor version
+            src.readUnsignedShort(); // major version
+            count = src.readUnsignedShort();
+            utf8 = new String[count];
+            classes = new int[count];
+            for (int i = 1; i < count; i++) {
+                tag = src.readUnsignedByte();
+                switch (tag) {
+                    case 1: // Utf8
+                        utf8[i] = src.readUTF();
+                        break;
+                    case 7: // Class
+                        classes[i] = src.readUnsignedShort();
+                        break;
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        skip(src, 2);
+                        break;
+                    case 15: // MethodHandle
+                        skip(src, 3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        skip(src, 4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        skip(src, 8);
+                        i++;
+                        break;
+                    default:
+                        throw new IOException(path + ": invalid constant pool tag " + tag);
+                }
+            }
+            src.readUnsignedShort(); // access flags
+            thisClass = src.readUnsignedShort();
+            src.readUnsignedShort(); // super class
+            skip(src, 2 * src.readUnsignedShort()); // interfaces
+            members(src, utf8, false);
+            main = members(src, utf8, true);
+            references = new LinkedHashSet<>();
+            for (int i = 1; i < count; i++) {
+                if (classes[i] != 0 && i != thisClass) {
+                    reference(utf8[classes[i]], references);
+                }
+            }
+            return new ClassInfo(path, main, references);
+        }
+
+        /** @return true if a public static main(String[]) method was found */
+        private static boolean members(DataInputStream src, String[] utf8, boolean methods) throws IOException {
+            int count;
+            int access;
+            String name;
+            String descriptor;
+            boolean result;
+
+            result = false;
+            count = src.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                access = src.readUnsignedShort();
+                name = utf8[src.readUnsignedShort()];
+                descriptor = utf8[src.readUnsignedShort()];
+                if (methods && "main".equals(name) && MAIN_DESCRIPTOR.equals(descriptor)
+                        && (access & ACC_PUBLIC_STATIC) == ACC_PUBLIC_STATIC) {
+                    result = true;
+                }
+                for (int j = src.readUnsignedShort(); j > 0; j--) {
+                    src.readUnsignedShort(); // attribute name
+                    skip(src, src.readInt() & 0xffffffffL);
+                }
+            }
+            return result;
+        }
+
+        /** Adds the class referenced by a class constant; arrays reference their element type, if it's a class */
+        private static void reference(String name, Set<String> dest) {
+            int dims;
+
+            dims = 0;
+            while (dims < name.length() && name.charAt(dims) == '[') {
+                dims++;
+            }
+            if (dims == 0) {
+                dest.add(name);
+            } else if (name.charAt(dims) == 'L' && name.endsWith(";")) {
+                dest.add(name.substring(dims + 1, name.length() - 1));
+            }
+        }
+
+        private static void skip(DataInputStream src, long count) throws IOException {
+            long remaining;
+            long n;
+
+            remaining = count;
+            while (remaining > 0) {
+                n = src.skip(remaining);
+                if (n <= 0) {
+                    src.readByte(); // throws EOFException at the end of the stream
+                    n = 1;
+                }
+                remaining -= n;
+            }
+        }
+
+        public final String path;
+        public final boolean main;
+        /** class names with slashes, without the class itself */
+        public final Set<String> references;
+
+        public ClassInfo(String path, boolean main, Set<String> references) {
+            this.path = path;
+            this.main = main;
+            this.references = references;
+        }
+    }
+}
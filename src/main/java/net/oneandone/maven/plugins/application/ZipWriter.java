@@ -0,0 +1,320 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.maven.plugins.application;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file. In contrast to ZipOutputStream, entries can be added with data that's already compressed, so
+ * entries from other zip files can be copied without inflating and deflating them again. Sizes and checksums are
+ * always known before an entry is written, thus there are no data descriptors.
+ */
+public class ZipWriter implements AutoCloseable {
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int UTF8_FLAG = 0x800;
+    private static final long MAX32 = 0xffffffffL;
+    private static final int MAX16 = 0xffff;
+
+    /** @return the specified time in MS-DOS format, as stored in zip headers */
+    public static int dosTime(LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    private final OutputStream dest;
+    private final int defaultTime;
+    private final byte[] buffer;
+    private final ByteArrayOutputStream central;
+    private long position;
+    private long count;
+
+    public ZipWriter(OutputStream dest) {
+        this(dest, dosTime(LocalDateTime.now()));
+    }
+
+    public ZipWriter(OutputStream dest, int defaultTime) {
+        this.dest = dest;
+        this.defaultTime = defaultTime;
+        this.buffer = new byte[64 * 1024];
+        this.central = new ByteArrayOutputStream();
+        this.position = 0;
+        this.count = 0;
+    }
+
+    public void directory(String name) throws IOException {
+        header(name, CentralDirectory.STORED, defaultTime, 0, 0, 0);
+    }
+
+    /** Adds an entry with the specified uncompressed data; deflates it. */
+    public void deflate(String name, byte[] data) throws IOException {
+        write(Compressed.deflate(name, data, Deflater.DEFAULT_COMPRESSION));
+    }
+
+    /** Adds an entry that has been compressed before. */
+    public void write(Compressed entry) throws IOException {
+        write(entry, defaultTime);
+    }
+
+    /** Adds an entry that has been compressed before, with the specified time in MS-DOS format. */
+    public void write(Compressed entry, int time) throws IOException {
+        header(entry.name, entry.method, time, entry.crc, entry.data.length, entry.size);
+        dest.write(entry.data);
+        position += entry.data.length;
+    }
+
+    /**
+     * Adds an entry from a different zip file, as is.
+     *
+     * @param raw stream of the compressed entry data
+     */
+    public void copy(CentralDirectory.Entry entry, String name, InputStream raw) throws IOException {
+        long remaining;
+        int n;
+
+        header(name, entry.method, entry.dosTime, entry.crc, entry.compressedSize, entry.size);
+        remaining = entry.compressedSize;
+        while (remaining > 0) {
+            n = raw.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                throw new ZipException(name + ": unexpected end of entry data");
+            }
+            dest.write(buffer, 0, n);
+            remaining -= n;
+        }
+        position += entry.compressedSize;
+    }
+
+    //--
+
+    /** Writes the entries of a rewritten zip file */
+    public interface Rewrite {
+        void write(CentralDirectory src, ZipWriter dest) throws IOException;
+    }
+
+    /**
+     * Replaces the zip part of the specified file with the entries written by rewrite; data prepended to the zip file
+     * (e.g. a launch script) is kept. File permissions are not preserved.
+     */
+    public static void rewrite(File file, Rewrite rewrite) throws IOException {
+        File tmp;
+        long prefix;
+        byte[] buffer;
+        int n;
+
+        tmp = new File(file.getPath() + ".tmp");
+        try (CentralDirectory zip = CentralDirectory.open(file)) {
+            prefix = file.length();
+            for (CentralDirectory.Entry entry : zip.entries) {
+                prefix = Math.min(prefix, entry.localOffset);
+            }
+            try (OutputStream dest = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 64 * 1024)) {
+                buffer = new byte[64 * 1024];
+                try (InputStream src = Files.newInputStream(file.toPath())) {
+                    while (prefix > 0) {
+                        n = src.read(buffer, 0, (int) Math.min(buffer.length, prefix));
+                        if (n == -1) {
+                            throw new EOFException(file + ": unexpected end of file");
+                        }
+                        dest.write(buffer, 0, n);
+                        prefix -= n;
+                    }
+                }
+                try (ZipWriter writer = new ZipWriter(dest)) {
+                    rewrite.write(zip, writer);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    //--
+
+    private void header(String str, int method, int time, long crc, long compressedSize, long size) throws IOException {
+        byte[] name;
+        int version;
+        boolean zip64Offset;
+        byte[] local;
+        byte[] cen;
+        byte[] extra;
+
+        if (compressedSize >= MAX32 || size >= MAX32) {
+            throw new ZipException(str + ": entries of 4 GB and more are not supported");
+        }
+        name = str.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX16) {
+            throw new ZipException(str + ": name too long");
+        }
+        zip64Offset = position >= MAX32;
+        version = zip64Offset ? 45 : method == CentralDirectory.DEFLATED ? 20 : 10;
+
+        local = new byte[30];
+        int32(local, 0, LOC_SIG);
+        int16(local, 4, version);
+        int16(local, 6, UTF8_FLAG);
+        int16(local, 8, method);
+        int32(local, 10, time);
+        int32(local, 14, crc);
+        int32(local, 18, compressedSize);
+        int32(local, 22, size);
+        int16(local, 26, name.length);
+        int16(local, 28, 0);
+        dest.write(local);
+        dest.write(name);
+
+        cen = new byte[46];
+        int32(cen, 0, CEN_SIG);
+        int16(cen, 4, version);
+        int16(cen, 6, version);
+        int16(cen, 8, UTF8_FLAG);
+        int16(cen, 10, method);
+        int32(cen, 12, time);
+        int32(cen, 16, crc);
+        int32(cen, 20, compressedSize);
+        int32(cen, 24, size);
+        int16(cen, 28, name.length);
+        int16(cen, 30, zip64Offset ? 12 : 0);
+        int32(cen, 42, zip64Offset ? MAX32 : position);
+        central.write(cen);
+        central.write(name);
+        if (zip64Offset) {
+            extra = new byte[12];
+            int16(extra, 0, 0x0001);
+            int16(extra, 2, 8);
+            int64(extra, 4, position);
+            central.write(extra);
+        }
+        position += local.length + name.length;
+        count++;
+    }
+
+    /** Writes the central directory and closes the underlying stream */
+    public void close() throws IOException {
+        long offset;
+        long size;
+        boolean zip64;
+        byte[] end;
+
+        offset = position;
+        size = central.size();
+        central.writeTo(dest);
+        position += size;
+        zip64 = count >= MAX16 || offset >= MAX32 || size >= MAX32;
+        if (zip64) {
+            end = new byte[56 + 20];
+            int32(end, 0, ZIP64_END_SIG);
+            int64(end, 4, 44);
+            int16(end, 12, 45);
+            int16(end, 14, 45);
+            int64(end, 24, count);
+            int64(end, 32, count);
+            int64(end, 40, size);
+            int64(end, 48, offset);
+            int32(end, 56, ZIP64_LOCATOR_SIG);
+            int64(end, 64, position);
+            int32(end, 72, 1);
+            dest.write(end);
+        }
+        end = new byte[22];
+        int32(end, 0, END_SIG);
+        // like ZipOutputStream, only fields that overflow are marked as zip64
+        int16(end, 8, (int) Math.min(count, MAX16));
+        int16(end, 10, (int) Math.min(count, MAX16));
+        int32(end, 12, Math.min(size, MAX32));
+        int32(end, 16, Math.min(offset, MAX32));
+        dest.write(end);
+        dest.close();
+    }
+
+    private static void int16(byte[] bytes, int pos, int value) {
+        bytes[pos] = (byte) value;
+        bytes[pos + 1] = (byte) (value >> 8);
+    }
+
+    private static void int32(byte[] bytes, int pos, long value) {
+        int16(bytes, pos, (int) value);
+        int16(bytes, pos + 2, (int) (value >> 16));
+    }
+
+    private static void int64(byte[] bytes, int pos, long value) {
+        int32(bytes, pos, value);
+        int32(bytes, pos + 4, value >> 32);
+    }
+
+    //--
+
+    /** Compressed data of an entry, ready to be written. */
+    public static class Compressed {
+        public static Compressed deflate(String name, byte[] data, int level) {
+            CRC32 crc;
+            Deflater deflater;
+            ByteArrayOutputStream dest;
+            byte[] buffer;
+
+            crc = new CRC32();
+            crc.update(data);
+            deflater = new Deflater(level, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                dest = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+                buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    dest.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } finally {
+                deflater.end();
+            }
+            return new Compressed(name, CentralDirectory.DEFLATED, crc.getValue(), data.length, dest.toByteArray());
+        }
+
+        public final String name;
+        public final int method;
+        public final long crc;
+        public final long size;
+        public final byte[] data;
+
+        public Compressed(String name, int method, long crc, long size, byte[] data) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+    }
+}